@@ -0,0 +1,40 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Stand-in for Android's Log on a plain JVM, so the DynamoNodes of
+ *              ClusterLoad can run outside the app. Errors and warnings go to
+ *              stderr; debug and info lines are dropped, as a filtered logcat
+ *              would, unless the JVM runs with -Dsimpledynamo.debug=true
+ * @author sarrafan
+ */
+
+package android.util;
+
+public final class Log {
+	private static final boolean IS_DEBUG = Boolean.getBoolean("simpledynamo.debug");
+
+	private Log() {
+	}
+
+	public static int d(String tag, String msg) {
+		return IS_DEBUG ? print("D", tag, msg) : 0;
+	}
+
+	public static int i(String tag, String msg) {
+		return IS_DEBUG ? print("I", tag, msg) : 0;
+	}
+
+	public static int w(String tag, String msg) {
+		return print("W", tag, msg);
+	}
+
+	public static int e(String tag, String msg) {
+		return print("E", tag, msg);
+	}
+
+	private static int print(String level, String tag, String msg) {
+		String line = level + "/" + tag + " [" + Thread.currentThread().getName() + "]: " + msg;
+		System.err.println(line);
+		return line.length();
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Runs N DynamoNodes in one JVM on loopback ports and drives the
+ *              LoadGenerator through them, to capacity-plan the whole Dynamo
+ *              on a laptop instead of five emulators. The Android pieces are
+ *              stood in for: the port number is handed to each node instead of
+ *              read from the TelephonyManager, its Rows are kept by the
+ *              log-structured engine (behind the ReadCache, as configured in
+ *              Constants), hints and changes in memory, and Log prints errors.
+ *              Node i is AVD 5554 + 2i and listens on 127.0.0.1, at twice its
+ *              port number like the emulators' redirections. Every operation
+ *              goes through the next node in turn, as its coordinator
+ *              java -cp benchmarks/target/benchmarks.jar \
+ *                  edu.buffalo.cse.cse486586.simpledynamo.ClusterLoad \
+ *                  [nodes] [records] [operations] [read proportion]
+ *                  [value size] [threads] [zipfian constant, 0 for uniform]
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class ClusterLoad {
+	// The first AVD's port number, as on the emulators
+	private static final int FIRST_PORT = 5554;
+
+	private ClusterLoad() {
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		LoadGenerator.Workload workload = new LoadGenerator.Workload(
+				args.length > 1 ? Long.parseLong(args[1]) : 10000,
+				args.length > 2 ? Long.parseLong(args[2]) : 100000,
+				args.length > 3 ? Double.parseDouble(args[3]) : 0.95,
+				args.length > 4 ? Integer.parseInt(args[4]) : 100,
+				args.length > 5 ? Integer.parseInt(args[5]) : 8,
+				args.length > 6 ? Double.parseDouble(args[6]) : ZipfianGenerator.DEFAULT_CONSTANT);
+
+		InetAddress loopback = InetAddress.getByName("127.0.0.1");
+		List<String> ports = new ArrayList<String>(nodeCount);
+		for(int i = 0 ; i < nodeCount ; i++) {
+			ports.add(String.valueOf(FIRST_PORT + 2 * i));
+		}
+
+		File directory = Files.createTempDirectory("cluster-load").toFile();
+		List<Storage> storages = new ArrayList<Storage>(nodeCount);
+		final List<DynamoNode> nodes = new ArrayList<DynamoNode>(nodeCount);
+		int exitCode = 0;
+		try {
+			// Every node is a seed, like the five AVDs
+			for(String port : ports) {
+				Storage storage = openStorage(new File(directory, port));
+				storages.add(storage);
+
+				DynamoNode node = new DynamoNode(port, ports, loopback, storage,
+						new MemoryHintStore(), new MemoryChangeLog());
+				node.start(new InetSocketAddress(loopback, Integer.parseInt(port) * 2), false);
+				nodes.add(node);
+			}
+
+			// Let the heartbeats open the connections between the nodes
+			Thread.sleep(2 * Constants.HEARTBEAT_INTERVAL);
+
+			System.out.println(nodeCount + " nodes : " +
+					new LoadGenerator(new ClusterStore(nodes), workload).run());
+			for(DynamoNode node : nodes) {
+				System.out.println(node.getMyPort() + " : " + failureCounters(node));
+			}
+		} catch(IOException e) {
+			System.err.println("Can't start the nodes : " + e.getMessage());
+			exitCode = 1;
+		} finally {
+			for(Storage storage : storages) {
+				storage.close();
+			}
+			delete(directory);
+		}
+
+		// The nodes' server threads don't stop on their own
+		System.exit(exitCode);
+	}
+
+	// The Storage a node's Rows are kept in, as the Provider opens the log-structured one
+	private static Storage openStorage(File directory) throws IOException {
+		Storage engine = new LogStructuredStorage(directory, Constants.MEMTABLE_SIZE,
+				Constants.COMPACTION_TRIGGER);
+
+		return Constants.READ_CACHE_SIZE <= 0 ? engine :
+				new ReadCache(engine, Constants.READ_CACHE_SIZE);
+	}
+
+	// The node's counters of what went wrong or had to be worked around
+	private static String failureCounters(DynamoNode node) {
+		StringBuilder counters = new StringBuilder();
+		for(Row row : node.stats()) {
+			if(row.getKey().equals("coordinator.write.failed") ||
+					row.getKey().equals("coordinator.query.hedged") ||
+					row.getKey().equals("read_repair") || row.getKey().equals("hints.stored")) {
+				counters.append(counters.length() == 0 ? "" : ", ")
+						.append(row.getKey()).append(" ").append(row.getValue());
+			}
+		}
+
+		return counters.toString();
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	// The nodes as one Store, each operation coordinated by the next node in turn
+	private static final class ClusterStore implements LoadGenerator.Store {
+		private final List<DynamoNode> nodes;
+		private final AtomicInteger next = new AtomicInteger();
+
+		ClusterStore(List<DynamoNode> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		public void put(String key, String value) throws Exception {
+			DynamoNode node = nextNode();
+			Row row = new Row(key, value, node.newVersion(), false);
+			if(node.insert(row, Constants.DEFAULT_WRITE_CONSISTENCY) < 0) {
+				throw new Exception("Insert of " + key + " failed");
+			}
+		}
+
+		@Override
+		public String get(String key) {
+			List<Row> rows = nextNode().query(key, Constants.DEFAULT_READ_CONSISTENCY);
+			return rows.isEmpty() ? null : rows.get(0).getValue();
+		}
+
+		private DynamoNode nextNode() {
+			return nodes.get((next.getAndIncrement() & Integer.MAX_VALUE) % nodes.size());
+		}
+	}
+}
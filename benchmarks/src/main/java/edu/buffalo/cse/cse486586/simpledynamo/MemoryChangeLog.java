@@ -0,0 +1,108 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   ChangeLog in memory, standing in for the SQLite one when
+ *              ClusterLoad runs the DynamoNodes on a plain JVM. Appends are
+ *              logged right away; nothing survives the JVM
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+final class MemoryChangeLog implements ChangeLog {
+	// The newest sequence of every logged key, and the keys by sequence
+	private final Map<String, Long> sequences = new HashMap<String, Long>();
+	private final TreeMap<Long, String> keys = new TreeMap<Long, String>();
+
+	// Last sequence handed out, and the one the log is truncated up to
+	private long lastSequence;
+	private long truncatedSequence;
+
+	// The sequence each peer acknowledged, and the last of each peer's I caught up to
+	private final Map<String, Long> acknowledged = new HashMap<String, Long>();
+	private final Map<String, Long> seen = new HashMap<String, Long>();
+
+	@Override
+	public synchronized void append(Collection<String> changedKeys) {
+		for(String key : changedKeys) {
+			Long previous = sequences.put(key, ++lastSequence);
+			if(previous != null) {
+				keys.remove(previous);
+			}
+			keys.put(lastSequence, key);
+		}
+	}
+
+	@Override
+	public synchronized boolean covers(long sequence) {
+		return sequence >= truncatedSequence && sequence <= lastSequence;
+	}
+
+	@Override
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	@Override
+	public synchronized List<Change> after(long sequence, int limit) {
+		List<Change> changes = new ArrayList<Change>();
+		for(Map.Entry<Long, String> entry : keys.tailMap(sequence, false).entrySet()) {
+			if(changes.size() == limit) {
+				break;
+			}
+			changes.add(new Change(entry.getValue(), entry.getKey()));
+		}
+
+		return changes;
+	}
+
+	@Override
+	public synchronized void acknowledge(String peer, long sequence, Collection<String> peers) {
+		Long previous = acknowledged.get(peer);
+		if(previous == null || previous < sequence) {
+			acknowledged.put(peer, sequence);
+		}
+
+		long seenByAll = lastSequence;
+		for(String other : peers) {
+			Long otherSeen = acknowledged.get(other);
+			if(otherSeen == null) {
+				return;
+			}
+			seenByAll = Math.min(seenByAll, otherSeen);
+		}
+
+		if(seenByAll <= truncatedSequence) {
+			return;
+		}
+
+		Map<Long, String> truncated = keys.headMap(seenByAll, true);
+		for(String key : truncated.values()) {
+			sequences.remove(key);
+		}
+		truncated.clear();
+		truncatedSequence = seenByAll;
+	}
+
+	@Override
+	public synchronized long getSeen(String peer) {
+		Long sequence = seen.get(peer);
+		return sequence == null ? 0 : sequence;
+	}
+
+	@Override
+	public synchronized void setSeen(String peer, long sequence) {
+		seen.put(peer, sequence);
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   HintStore in memory, standing in for the SQLite one when
+ *              ClusterLoad runs the DynamoNodes on a plain JVM. Only the newest
+ *              write of a key is kept per replica, as in SQLiteHintStore
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class MemoryHintStore implements HintStore {
+	// The hints of every target, by key
+	private final Map<String, Map<String, Row>> hints = new HashMap<String, Map<String, Row>>();
+
+	@Override
+	public synchronized boolean add(String target, Row row) {
+		Map<String, Row> targetHints = hints.get(target);
+		if(targetHints == null) {
+			targetHints = new HashMap<String, Row>();
+			hints.put(target, targetHints);
+		}
+
+		if(!row.isNewerThan(targetHints.get(row.getKey()))) {
+			return false;
+		}
+
+		targetHints.put(row.getKey(), row);
+		return true;
+	}
+
+	@Override
+	public synchronized List<Row> peek(String target, int limit) {
+		Map<String, Row> targetHints = hints.get(target);
+		if(targetHints == null) {
+			return new ArrayList<Row>();
+		}
+
+		List<Row> rows = new ArrayList<Row>(targetHints.values());
+		Collections.sort(rows, new Comparator<Row>() {
+			@Override
+			public int compare(Row lhs, Row rhs) {
+				return lhs.getVersion() < rhs.getVersion() ? -1 :
+						(lhs.getVersion() == rhs.getVersion() ? 0 : 1);
+			}
+		});
+
+		return new ArrayList<Row>(rows.subList(0, Math.min(limit, rows.size())));
+	}
+
+	@Override
+	public synchronized void remove(String target, List<Row> delivered) {
+		Map<String, Row> targetHints = hints.get(target);
+		if(targetHints == null) {
+			return;
+		}
+
+		for(Row row : delivered) {
+			Row hint = targetHints.get(row.getKey());
+			if(hint != null && hint.getVersion() == row.getVersion()) {
+				targetHints.remove(row.getKey());
+			}
+		}
+	}
+
+	@Override
+	public synchronized boolean hasHints(String target) {
+		Map<String, Row> targetHints = hints.get(target);
+		return targetHints != null && !targetHints.isEmpty();
+	}
+}
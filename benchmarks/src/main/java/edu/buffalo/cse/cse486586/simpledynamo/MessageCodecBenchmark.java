@@ -0,0 +1,101 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   JMH benchmarks of encoding and decoding Messages
+ *              A single key INSERT and a BATCH of Rows, for different value
+ *              sizes. Encoding reuses the codec's buffer as the ClientTask does;
+ *              decoding reads a frame as the ServerTask does
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+	@Param({"16", "1024"})
+	public int valueSize;
+
+	@Param({"128"})
+	public int batchSize;
+
+	private MessageCodec codec;
+	private Message insert;
+	private Message batch;
+	private byte[] insertFrame;
+	private byte[] batchFrame;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		codec = new MessageCodec(8 * 1024);
+
+		StringBuilder value = new StringBuilder(valueSize);
+		while(value.length() < valueSize) {
+			value.append('v');
+		}
+
+		insert = new Message(Message.INSERT, 1, "5554",
+				new Row("key", value.toString(), 42, false));
+
+		List<Row> rows = new ArrayList<Row>(batchSize);
+		for(int i = 0 ; i < batchSize ; i++) {
+			rows.add(new Row("key" + i, value.toString(), 42 + i, false));
+		}
+		batch = new Message(Message.BATCH, 2, "5554", rows);
+
+		insertFrame = frameOf(insert);
+		batchFrame = frameOf(batch);
+	}
+
+	// The frame without its length prefix, as decode expects it
+	private byte[] frameOf(Message message) {
+		ByteBuffer frame = codec.encode(message);
+		byte[] bytes = new byte[frame.limit() - MessageCodec.LENGTH_PREFIX];
+		System.arraycopy(frame.array(), frame.arrayOffset() + MessageCodec.LENGTH_PREFIX,
+				bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteBuffer encodeInsert() {
+		return codec.encode(insert);
+	}
+
+	@Benchmark
+	public Message decodeInsert() throws ProtocolException {
+		return MessageCodec.decode(ByteBuffer.wrap(insertFrame));
+	}
+
+	@Benchmark
+	public ByteBuffer encodeBatch() {
+		return codec.encode(batch);
+	}
+
+	@Benchmark
+	public Message decodeBatch() throws ProtocolException {
+		return MessageCodec.decode(ByteBuffer.wrap(batchFrame));
+	}
+}
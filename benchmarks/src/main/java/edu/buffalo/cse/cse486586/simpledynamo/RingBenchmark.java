@@ -0,0 +1,105 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   JMH benchmarks of hashing and routing a key
+ *              genHash is Ring.toHex(Ring.hash(key)); routing is one hash and a
+ *              binary search over the tokens of the Ring, for rings of different
+ *              sizes. Run with -prof gc to see the bytes allocated per operation
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBenchmark {
+	// Number of keys cycled through, so lookups don't hit one hot token
+	private static final int KEYS = 1024;
+
+	@Param({"5", "50"})
+	public int nodes;
+
+	@Param({"1", "8"})
+	public int virtualNodes;
+
+	@Param({"8", "128"})
+	public int keySize;
+
+	private Ring ring;
+	private String[] keys;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		List<String> names = new ArrayList<String>(nodes);
+		for(int i = 0 ; i < nodes ; i++) {
+			names.add(String.valueOf(5554 + 2 * i));
+		}
+		ring = new Ring(names, virtualNodes, 3);
+
+		keys = new String[KEYS];
+		for(int i = 0 ; i < KEYS ; i++) {
+			StringBuilder key = new StringBuilder(keySize);
+			key.append(i);
+			while(key.length() < keySize) {
+				key.append('k');
+			}
+			keys[i] = key.toString();
+		}
+	}
+
+	private String nextKey() {
+		next = (next + 1) & (KEYS - 1);
+		return keys[next];
+	}
+
+	@Benchmark
+	public byte[] hash() {
+		return Ring.hash(nextKey());
+	}
+
+	// What SimpleDynamoProvider.genHash does
+	@Benchmark
+	public String genHash() {
+		return Ring.toHex(Ring.hash(nextKey()));
+	}
+
+	// The Node that coordinates the key (findKeyLocation in the old code)
+	@Benchmark
+	public String coordinator() {
+		return ring.getCoordinator(nextKey());
+	}
+
+	// All the replicas of the key (the coordinator and findMySuccessors in the old code)
+	@Benchmark
+	public String[] preferenceList() {
+		return ring.getPreferenceList(nextKey());
+	}
+
+	// Building the Ring, done again whenever the membership changes
+	@Benchmark
+	public Ring build() {
+		return new Ring(ring.getNodes(), virtualNodes, 3);
+	}
+}
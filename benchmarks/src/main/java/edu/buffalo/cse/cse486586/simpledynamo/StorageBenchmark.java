@@ -0,0 +1,137 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   JMH benchmarks of the Storage engines that run on a plain JVM
+ *              The log-structured engine on its own and behind the ReadCache,
+ *              for different key and value sizes: point writes, point reads of
+ *              keys written during setup (some of them flushed to Segments),
+ *              reads of absent keys, and scanning a page. The SQLite engine
+ *              needs the Android runtime and is measured on a device instead
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+	// Keys written during setup, and read back by the benchmarks
+	private static final int KEYS = 16 * 1024;
+
+	@Param({"log-structured", "log-structured+cache"})
+	public String engine;
+
+	@Param({"16", "64"})
+	public int keySize;
+
+	@Param({"16", "1024"})
+	public int valueSize;
+
+	private File directory;
+	private Storage storage;
+	private String[] keys;
+	private String value;
+	private int next;
+	private long version;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("storage-benchmark").toFile();
+
+		// A small memtable, so the setup leaves part of the keys in Segments
+		Storage logStructured = new LogStructuredStorage(directory, 256 * 1024, 4);
+		storage = engine.endsWith("+cache") ? new ReadCache(logStructured, 2 * 1024 * 1024) :
+				logStructured;
+
+		StringBuilder valueBuilder = new StringBuilder(valueSize);
+		while(valueBuilder.length() < valueSize) {
+			valueBuilder.append('v');
+		}
+		value = valueBuilder.toString();
+
+		keys = new String[KEYS];
+		storage.beginBatch();
+		for(int i = 0 ; i < KEYS ; i++) {
+			keys[i] = key(i);
+			storage.put(new Row(keys[i], value, ++version, false));
+		}
+		storage.endBatch();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		storage.close();
+
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	// A key of keySize characters, in the same order as i
+	private String key(int i) {
+		StringBuilder key = new StringBuilder(keySize);
+		String number = String.format("%08d", i);
+		while(key.length() + number.length() < keySize) {
+			key.append('k');
+		}
+		return key.append(number).toString();
+	}
+
+	private String nextKey() {
+		next = (next + 1) & (KEYS - 1);
+		return keys[next];
+	}
+
+	@Benchmark
+	public void put() {
+		storage.put(new Row(nextKey(), value, ++version, false));
+	}
+
+	@Benchmark
+	public Row get() {
+		return storage.get(nextKey());
+	}
+
+	@Benchmark
+	public Row getAbsent() {
+		return storage.get(nextKey() + "-absent");
+	}
+
+	@Benchmark
+	public List<Row> scanPage() {
+		return storage.scan(nextKey(), 256, false);
+	}
+
+	@Benchmark
+	public List<Row> scanKeysOnly() {
+		return storage.scan(nextKey(), 256, true);
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Runs the LoadGenerator against a Storage engine on a plain JVM,
+ *              to size one AVD's storage on a laptop
+ *              java -cp benchmarks/target/benchmarks.jar \
+ *                  edu.buffalo.cse.cse486586.simpledynamo.StorageLoad \
+ *                  [engine] [records] [operations] [read proportion]
+ *                  [value size] [threads] [zipfian constant, 0 for uniform]
+ *              engine is log-structured or log-structured+cache
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public final class StorageLoad {
+	private StorageLoad() {
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String engine = args.length > 0 ? args[0] : "log-structured+cache";
+		LoadGenerator.Workload workload = new LoadGenerator.Workload(
+				args.length > 1 ? Long.parseLong(args[1]) : 100000,
+				args.length > 2 ? Long.parseLong(args[2]) : 1000000,
+				args.length > 3 ? Double.parseDouble(args[3]) : 0.95,
+				args.length > 4 ? Integer.parseInt(args[4]) : 100,
+				args.length > 5 ? Integer.parseInt(args[5]) : 8,
+				args.length > 6 ? Double.parseDouble(args[6]) : ZipfianGenerator.DEFAULT_CONSTANT);
+
+		File directory = Files.createTempDirectory("storage-load").toFile();
+		Storage logStructured = new LogStructuredStorage(directory, 4 * 1024 * 1024, 4);
+		final Storage storage = engine.endsWith("+cache") ?
+				new ReadCache(logStructured, 2 * 1024 * 1024) : logStructured;
+
+		// Versions only have to grow, as the HybridClock's do
+		final long[] version = {0};
+		LoadGenerator.Store store = new LoadGenerator.Store() {
+			@Override
+			public void put(String key, String value) {
+				long next;
+				synchronized(version) {
+					next = ++version[0];
+				}
+				storage.put(new Row(key, value, next, false));
+			}
+
+			@Override
+			public String get(String key) {
+				Row row = storage.get(key);
+				return row == null || row.isTombstone() ? null : row.getValue();
+			}
+		};
+
+		try {
+			System.out.println(engine + " : " + new LoadGenerator(store, workload).run());
+		} finally {
+			storage.close();
+
+			File[] files = directory.listFiles();
+			if(files != null) {
+				for(File file : files) {
+					file.delete();
+				}
+			}
+			directory.delete();
+		}
+	}
+}
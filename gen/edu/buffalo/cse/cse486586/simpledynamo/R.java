@@ -27,9 +27,9 @@ public final class R {
         public static final int action_settings=0x7f080007;
         public static final int button1=0x7f080000;
         public static final int button2=0x7f080001;
-        public static final int button3=0x7f080002;
         public static final int button4=0x7f080003;
         public static final int button5=0x7f080006;
+        public static final int button6=0x7f080008;
         public static final int myData=0x7f080005;
         public static final int mySuccPre=0x7f080004;
     }
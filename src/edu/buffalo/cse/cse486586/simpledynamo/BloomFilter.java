@@ -0,0 +1,100 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Bloom Filter over the keys of a Segment, so a lookup of a key the
+ *              Segment doesn't have rarely touches the disk. Uses double hashing
+ *              of one 64 bit key hash to derive all the bit positions
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+final class BloomFilter {
+	private final long[] bits;
+	private final int hashCount;
+
+	BloomFilter(int expectedKeys, int bitsPerKey) {
+		long bitCount = Math.max(64L, (long) expectedKeys * bitsPerKey);
+		this.bits = new long[(int) ((bitCount + 63) / 64)];
+		// ln 2 * bits per key hashes minimize the false positive rate
+		this.hashCount = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+	}
+
+	private BloomFilter(long[] bits, int hashCount) {
+		this.bits = bits;
+		this.hashCount = hashCount;
+	}
+
+	void add(String key) {
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long bitCount = bits.length * 64L;
+
+		for(int i = 0 ; i < hashCount ; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % bitCount;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	// False means the key was never added; true means it probably was
+	boolean mightContain(String key) {
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		long bitCount = bits.length * 64L;
+
+		for(int i = 0 ; i < hashCount ; i++) {
+			long bit = ((h1 + i * h2) & 0x7fffffffL) % bitCount;
+			if((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(hashCount);
+		out.writeInt(bits.length);
+		for(long word : bits) {
+			out.writeLong(word);
+		}
+	}
+
+	static BloomFilter readFrom(DataInput in) throws IOException {
+		int hashCount = in.readInt();
+		int words = in.readInt();
+		if(hashCount < 1 || words < 1) {
+			throw new IOException("Corrupt Bloom Filter");
+		}
+
+		long[] bits = new long[words];
+		for(int i = 0 ; i < words ; i++) {
+			bits[i] = in.readLong();
+		}
+
+		return new BloomFilter(bits, hashCount);
+	}
+
+	// FNV-1a over the characters, then the MurmurHash3 finalizer
+	private static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0 ; i < key.length() ; i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+}
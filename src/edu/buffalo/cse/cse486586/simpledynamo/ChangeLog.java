@@ -0,0 +1,61 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Sequence numbered log of the keys changed in my table
+ *              Every local write gives its key the next sequence number (only
+ *              the newest one of a key needs to be kept). A peer coming back
+ *              asks for the keys changed after the last sequence it saw from me,
+ *              so catching up costs as much as the outage, not the data set.
+ *              What every peer has acknowledged is truncated. The sequences I
+ *              saw from each peer are kept here too
+ *              Implementations: SQLiteChangeLog
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface ChangeLog {
+	// One logged key and the sequence it last changed at
+	final class Change {
+		private final String key;
+		private final long sequence;
+
+		Change(String key, long sequence) {
+			this.key = key;
+			this.sequence = sequence;
+		}
+
+		String getKey() {
+			return key;
+		}
+
+		long getSequence() {
+			return sequence;
+		}
+	}
+
+	// The keys just changed in my table, in the order they changed
+	void append(Collection<String> keys);
+
+	// Whether every change after the sequence is still in the log
+	boolean covers(long sequence);
+
+	long getLastSequence();
+
+	// Up to limit of the keys changed after the sequence, oldest change first
+	List<Change> after(long sequence, int limit);
+
+	// The peer has seen my changes up to the sequence. Once all the peers have,
+	// the changes every one of them saw are dropped
+	void acknowledge(String peer, long sequence, Collection<String> peers);
+
+	// The last of the peer's sequences I caught up to, 0 if none
+	long getSeen(String peer);
+
+	void setSeen(String peer, long sequence);
+
+	void close();
+}
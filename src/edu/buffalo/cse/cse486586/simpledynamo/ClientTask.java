@@ -1,65 +1,183 @@
 /**
  * NAME	    :   ANKIT SARRAF
  * EMAIL    :   sarrafan@buffalo.edu
- * PURPOSE  :   ClientTask is a Thread that is used to send a string over the network.
- *              On the start of the task, it send the message to a specified AVD
+ * PURPOSE  :   ClientTask is a long lived Thread that owns the connection to one AVD.
+ *              Messages are queued on a bounded outbox and written as MessageCodec
+ *              frames over a single persistent socket, which is re-established
+ *              whenever it breaks. Messages that can't be delivered are handed
+ *              to the DeliveryListener instead of being silently dropped
  * @author sarrafan
  */
 
 package edu.buffalo.cse.cse486586.simpledynamo;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import android.util.Log;
 
 class ClientTask extends Thread {
-	// Tag for Logging Activity
-	static final String TAG = SimpleDynamoActivity.class.getSimpleName();
+	// Messages waiting to be sent to the receiver
+	private final BlockingQueue<Message> outbox;
+	private final String receiver;
 
-	// Message to Send
-	private String msgToSend;
-	private String receiver;
+	// The receiver listens on this host, at twice its port number
+	private final InetAddress host;
 
-	ClientTask(String msgToSend, String receiver) {
-		this.msgToSend = msgToSend;
+	// Told about undelivered Messages and fresh connections
+	private final DeliveryListener listener;
+
+	// Encodes the outgoing Messages into one reused buffer
+	private final MessageCodec messageCodec;
+
+	// The persistent connection to the receiver
+	private volatile Socket socket;
+	private OutputStream streamOut;
+
+	// Don't try to reconnect to a dead AVD before this time
+	private long nextConnectAttempt;
+
+	// Callbacks run on the ClientTask's own thread and must not block for long
+	interface DeliveryListener {
+		// The Message could not be written to the receiver
+		void onUndelivered(String receiver, Message message);
+
+		// A new connection to the receiver was just established
+		void onConnected(String receiver);
+	}
+
+	ClientTask(String receiver, InetAddress host, DeliveryListener listener) {
 		this.receiver = receiver;
+		this.host = host;
+		this.listener = listener;
+		this.outbox = new ArrayBlockingQueue<Message>(Constants.SEND_QUEUE_CAPACITY);
+		this.messageCodec = new MessageCodec(Constants.READ_BUFFER_SIZE);
+		this.nextConnectAttempt = 0;
+
+		this.setName("ClientTask-" + receiver);
+		this.setDaemon(true);
 		this.start();
 	}
 
-	public void run() {
+	// Queue a message for the receiver. Returns false if the outbox stayed full
+	boolean send(Message msgToSend) {
 		try {
-			// Log entry that ClientTask is entered
-			Log.i(TAG, "Inside Client");
+			if(outbox.offer(msgToSend, Constants.SEND_QUEUE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 
-			// Log the message to be sent across the socket
-			//Log.i(TAG, "Message to Send => " + this.msgToSend + 
-				//	" : Receiver => " + this.receiver);
+		Log.e("ANKIT SARRAF", "Outbox Full, Dropping Message To " + receiver);
+		listener.onUndelivered(receiver, msgToSend);
+		return false;
+	}
 
-			// Initiate the socket that is used to send the Message
-			Socket socket = new Socket(InetAddress.getByAddress(
-					new byte[]{10, 0, 2, 2}),
-					Integer.parseInt(receiver) * 2);
+	int getQueueDepth() {
+		return outbox.size();
+	}
 
-			// PrintWriter object
-			PrintWriter printWriterOut = new PrintWriter(socket.getOutputStream(), true);
+	boolean isConnected() {
+		return socket != null;
+	}
+
+	public void run() {
+		while(true) {
+			Message msgToSend;
+			try {
+				msgToSend = outbox.take();
+			} catch(InterruptedException e) {
+				break;
+			}
 
-			// Write on the Socket
-			printWriterOut.write(msgToSend);
+			ByteBuffer frame = messageCodec.encode(msgToSend);
 
-			// Close PrintWriter
-			printWriterOut.close();
+			// Try once on the existing connection and once on a fresh one,
+			// since the receiver may have restarted since our last write
+			boolean sent = false;
+			for(int attempt = 0 ; attempt < 2 && !sent ; attempt++) {
+				try {
+					if(!connect()) {
+						break;
+					}
 
-			// Close Socket
-			socket.close();
+					streamOut.write(frame.array(), frame.arrayOffset(), frame.limit());
+
+					// Flush only once nothing else is waiting, so bursts share a packet
+					if(outbox.isEmpty()) {
+						streamOut.flush();
+					}
+
+					sent = true;
+				} catch(IOException e) {
+					Log.e("ANKIT SARRAF", "IO Exception : " + receiver);
+					disconnect();
+				}
+			}
+
+			if(!sent) {
+				listener.onUndelivered(receiver, msgToSend);
+			}
+		}
+
+		disconnect();
+	}
+
+	// Make sure there is a live connection. Returns false while the receiver is unreachable
+	private boolean connect() {
+		if(socket != null) {
+			return true;
+		}
+
+		long now = System.currentTimeMillis();
+		if(now < nextConnectAttempt) {
+			return false;
+		}
+
+		try {
+			// Initiate the socket that is used to send the Messages
+			Socket newSocket = new Socket();
+			newSocket.setTcpNoDelay(true);
+			newSocket.setKeepAlive(true);
+			newSocket.connect(new InetSocketAddress(host, Integer.parseInt(receiver) * 2),
+					Constants.CONNECT_TIMEOUT);
+
+			socket = newSocket;
+			streamOut = new BufferedOutputStream(socket.getOutputStream(), Constants.READ_BUFFER_SIZE);
+			nextConnectAttempt = 0;
+
+			listener.onConnected(receiver);
+
+			return true;
 		} catch(NumberFormatException e) {
 			Log.e("ANKIT SARRAF", "Number Format Exception");
 		} catch(IOException e) {
-			Log.e("ANKIT SARRAF", "IO Exception");
-		} catch(Exception e) {
-			Log.e("ANKIT SARRAF", "SOME EXCEPTION : " + e.getMessage());
+			Log.e("ANKIT SARRAF", "Can't Connect To " + receiver);
 		}
+
+		nextConnectAttempt = now + Constants.RECONNECT_BACKOFF;
+		return false;
+	}
+
+	private void disconnect() {
+		try {
+			if(socket != null) {
+				socket.close();
+			}
+		} catch(IOException e) {
+			Log.e("ANKIT SARRAF", "IO Exception : " + e.getMessage());
+		}
+
+		socket = null;
+		streamOut = null;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Keeps one ClientTask (and so one warm connection) per remote AVD
+ *              All outgoing messages of the Provider go through here
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+class ConnectionPool {
+	// One ClientTask per receiver, created the first time we talk to it
+	private final ConcurrentHashMap<String, ClientTask> clientTasks;
+
+	// Shared by all the ClientTasks
+	private final InetAddress host;
+	private final ClientTask.DeliveryListener listener;
+
+	ConnectionPool(InetAddress host, ClientTask.DeliveryListener listener) {
+		this.clientTasks = new ConcurrentHashMap<String, ClientTask>();
+		this.host = host;
+		this.listener = listener;
+	}
+
+	// Send the message to the receiver over its persistent connection
+	boolean send(Message msgToSend, String receiver) {
+		return getClientTask(receiver).send(msgToSend);
+	}
+
+	// Total number of messages waiting in all the outboxes
+	int getQueueDepth() {
+		int depth = 0;
+		for(ClientTask clientTask : clientTasks.values()) {
+			depth += clientTask.getQueueDepth();
+		}
+
+		return depth;
+	}
+
+	// Number of receivers with an open connection
+	int getOpenConnections() {
+		int open = 0;
+		for(ClientTask clientTask : clientTasks.values()) {
+			if(clientTask.isConnected()) {
+				open++;
+			}
+		}
+
+		return open;
+	}
+
+	private ClientTask getClientTask(String receiver) {
+		ClientTask clientTask = clientTasks.get(receiver);
+		if(clientTask != null) {
+			return clientTask;
+		}
+
+		synchronized(clientTasks) {
+			clientTask = clientTasks.get(receiver);
+			if(clientTask == null) {
+				clientTask = new ClientTask(receiver, host, listener);
+				clientTasks.put(receiver, clientTask);
+			}
+		}
+
+		return clientTask;
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Consistency Level of a single insert, query or delete
+ *              Chosen per call with the "consistency" parameter of the content URI,
+ *              e.g. content://edu.buffalo.cse.cse486586.simpledynamo.provider?consistency=ONE
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.Locale;
+
+public enum Consistency {
+	// Any one replica
+	ONE,
+
+	// R replicas for reads, W replicas for writes
+	QUORUM,
+
+	// Every replica in the preference list
+	ALL;
+
+	// Name of the content URI parameter
+	public static final String URI_PARAMETER = "consistency";
+
+	// Number of replicas out of the preference list that must answer
+	public int required(int replicas, int quorum) {
+		switch(this) {
+		case ONE:
+			return Math.min(1, replicas);
+		case ALL:
+			return replicas;
+		default:
+			return Math.min(quorum, replicas);
+		}
+	}
+
+	// The level named by the parameter, or the default when it is missing or unknown
+	public static Consistency parse(String level, Consistency defaultLevel) {
+		if(level == null) {
+			return defaultLevel;
+		}
+
+		try {
+			return valueOf(level.trim().toUpperCase(Locale.US));
+		} catch(IllegalArgumentException e) {
+			return defaultLevel;
+		}
+	}
+}
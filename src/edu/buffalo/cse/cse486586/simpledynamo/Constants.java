@@ -11,12 +11,145 @@
 package edu.buffalo.cse.cse486586.simpledynamo;
 
 public interface Constants {
-	// Hard coding the Redirection Ports
-	public final String [] REMOTE_PORT = {"5554", "5556", "5558", "5560", "5562"};
+	// The AVDs every AVD gossips with at start up; any other AVD may join through them
+	public final String [] SEED_NODES = {"5554", "5556", "5558", "5560", "5562"};
 
 	// Server Port Number
 	public final int SERVER_PORT = 10000;
 	
-	// The Maximum Number of Nodes
-	public final int MAX = 5;
-}
\ No newline at end of file
+	// Number of tokens every Node owns on the Consistent Hash Ring
+	public final int VIRTUAL_NODES = 8;
+
+	// Number of Nodes that store each key (N)
+	public final int REPLICATION_FACTOR = 3;
+
+	// Replicas that must answer a QUORUM read (R) and acknowledge a QUORUM write (W)
+	public final int READ_QUORUM = 2;
+	public final int WRITE_QUORUM = 2;
+
+	// Consistency Level used when the content URI doesn't name one
+	public final Consistency DEFAULT_READ_CONSISTENCY = Consistency.QUORUM;
+	public final Consistency DEFAULT_WRITE_CONSISTENCY = Consistency.QUORUM;
+
+	// Maximum number of Messages queued for one AVD before senders give up
+	public final int SEND_QUEUE_CAPACITY = 1024;
+
+	// How long (ms) a sender waits for room in a full outbox
+	public final int SEND_QUEUE_TIMEOUT = 100;
+
+	// Connect timeout (ms) for the persistent connection to an AVD
+	public final int CONNECT_TIMEOUT = 500;
+
+	// How long (ms) to wait before reconnecting to an unreachable AVD
+	public final int RECONNECT_BACKOFF = 1000;
+
+	// Storage engines, and the one every AVD uses
+	public final String STORAGE_SQLITE = "sqlite";
+	public final String STORAGE_LOG_STRUCTURED = "log-structured";
+	public final String STORAGE_ENGINE = STORAGE_SQLITE;
+
+	// Most Rows the SQLite Storage commits in one group transaction, and most keys
+	// the ChangeLog appends in one
+	public final int GROUP_COMMIT_SIZE = 512;
+
+	// Bytes the log-structured memtable holds before it is written out as a Segment
+	public final long MEMTABLE_SIZE = 4 * 1024 * 1024;
+
+	// Number of Segments that makes the log-structured Storage merge them into one
+	public final int COMPACTION_TRIGGER = 4;
+
+	// Bytes of point lookups cached in front of the Storage (0 disables the cache)
+	public final long READ_CACHE_SIZE = 2 * 1024 * 1024;
+
+	// Number of locks the keys are striped over
+	public final int LOCK_STRIPES = 64;
+
+	// Number of threads handling the Messages received by the ServerTask
+	public final int WORKER_THREADS = 4;
+
+	// Initial size of the per connection read buffer
+	public final int READ_BUFFER_SIZE = 8 * 1024;
+
+	// Largest Message the ServerTask accepts on one connection
+	public final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+	// How long (ms) a key query waits for the replicas to answer
+	public final int REQUEST_TIMEOUT = 2000;
+
+	// Recent read latencies the hedge delay is computed from
+	public final int LATENCY_WINDOW = 256;
+
+	// Percentile of the recent read latencies after which a read asks one more replica
+	public final double HEDGE_PERCENTILE = 95.0;
+
+	// Bounds (ms) of the hedge delay: the smallest one, and the one used before any reads
+	public final int MIN_HEDGE_DELAY = 5;
+	public final int INITIAL_HEDGE_DELAY = 50;
+
+	// How long (ms) an AVD's average read latency counts before it is tried afresh
+	public final int LATENCY_MAX_AGE = 10000;
+
+	// How long (ms) an insert or delete waits for the replicas' acknowledgements
+	public final int WRITE_TIMEOUT = 2000;
+
+	// How long (ms) a global (*) query waits for a page from the other AVDs
+	public final int GLOBAL_QUERY_TIMEOUT = 5000;
+
+	// Most Rows a bulk insert sends to one replica in a single BATCH Message
+	public final int BULK_BATCH_SIZE = 512;
+
+	// Rows per page an AVD sends for a global (*) query, and rows per cursor window
+	public final int GLOBAL_SCAN_PAGE_SIZE = 256;
+
+	// How long (ms) background recovery keeps syncing with the other AVDs after a restart
+	public final int RECOVERY_TIMEOUT = 10000;
+
+	// Number of hinted writes replayed to a recovered AVD per HANDOFF Message
+	public final int HINT_BATCH_SIZE = 128;
+
+	// How long (ms) a HANDOFF batch waits for its acknowledgement
+	public final int HANDOFF_TIMEOUT = 2000;
+
+	// How often (ms) every AVD swaps its membership view with a peer
+	public final int GOSSIP_INTERVAL = 1000;
+
+	// How often (ms) every AVD sends a heartbeat to the others
+	public final int HEARTBEAT_INTERVAL = 500;
+
+	// Heartbeat intervals the failure detector remembers per AVD
+	public final int HEARTBEAT_WINDOW = 100;
+
+	// Smallest standard deviation (ms) assumed for the heartbeat intervals
+	public final int HEARTBEAT_MIN_STD_DEVIATION = 100;
+
+	// Longest gap (ms) between two heartbeats still taken as a delay, not an outage
+	public final int HEARTBEAT_MAX_INTERVAL = 2000;
+
+	// Suspicion level (phi) above which an AVD counts as down
+	public final double PHI_THRESHOLD = 8.0;
+
+	// About how many Rows of differing MerkleTree leaves are swapped per SYNC_QUERY
+	public final int SYNC_ROW_BATCH = 512;
+
+	// Depth of the MerkleTree kept per token range (2^depth leaves)
+	public final int MERKLE_DEPTH = 8;
+
+	// Most keys the MerkleTrees index by leaf; ranges past it are rescanned when they differ
+	public final int MERKLE_INDEX_MAX_KEYS = 65536;
+
+	// Pause (ms) between two background anti-entropy syncs of one token range
+	public final int ANTI_ENTROPY_INTERVAL = 1000;
+
+	// How often (ms) anti-entropy catches up on every peer's ChangeLog
+	public final int CHANGE_PULL_INTERVAL = 30000;
+
+	// Changed keys a peer reads from my ChangeLog per CHANGES round trip
+	public final int CHANGE_LOG_PAGE_SIZE = 512;
+
+	// Pause (ms) between two sweeps of my table for expired Rows
+	public final int EXPIRY_SWEEP_INTERVAL = 10000;
+
+	// Expired Rows swept in one Storage batch, and the pause (ms) after each batch
+	public final int EXPIRY_SWEEP_BATCH = 128;
+	public final int EXPIRY_SWEEP_PAUSE = 100;
+}
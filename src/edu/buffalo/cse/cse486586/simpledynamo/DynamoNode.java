@@ -0,0 +1,1921 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   One Dynamo node: membership, request routing, quorum replication,
+ *              hinted handoff, anti-entropy and recovery, over its Storage,
+ *              HintStore and ChangeLog. Plain Java, so SimpleDynamoProvider runs
+ *              one inside the app (SQLite, the emulator's ports) and the
+ *              ClusterLoad harness runs several in one JVM on loopback ports
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import android.util.Log;
+
+final class DynamoNode {
+	// List of all the AVDs in the Dynamo, sorted. Replaced (never modified) as they join
+	private volatile List<Node> allNodes;
+
+	// Consistent Hash Ring used to route every key. Immutable, so readers need no lock
+	private volatile Ring ring;
+
+	// The AVDs every AVD gossips with at start up
+	private final List<String> seeds;
+
+	// The gossiped membership the Ring is built from
+	private volatile Membership membership;
+
+	// Local writes hold it shared; swapping the Ring (and its MerkleTrees) holds it exclusive
+	private final ReentrantReadWriteLock ringLock = new ReentrantReadWriteLock();
+
+	// Persistent connections to the other AVDs
+	private final HintedHandoff handoffListener = new HintedHandoff();
+	private final ConnectionPool connectionPool;
+
+	// Where my Rows are kept
+	private final Storage storage;
+
+	// The cache in front of the Storage (null if disabled), kept for its counters
+	private final ReadCache readCache;
+
+	// Hashes of my Rows per token range, compared with the peers' by anti-entropy
+	private volatile MerkleTrees merkleTrees;
+
+	// Writes waiting for replicas that were unreachable
+	private final HintStore hintStore;
+
+	// Keys changed here, for peers catching up after a restart
+	private final ChangeLog changeLog;
+
+	// AVDs whose hints are being replayed right now
+	private final Set<String> handoffTargets =
+			Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// Requests waiting for replies from the other AVDs
+	private final PendingRequests pendingRequests = new PendingRequests();
+
+	// Orders the local writes to each key; different keys proceed in parallel
+	private final KeyLocks keyLocks = new KeyLocks(Constants.LOCK_STRIPES);
+
+	// My Port Number
+	private final String portNumber;
+
+	// Versions every write this AVD coordinates
+	private final HybridClock clock = new HybridClock();
+
+	// Runs read repairs, hint writes and hint replays off the caller's thread, in order
+	private final ThreadPoolExecutor backgroundTasks = new ThreadPoolExecutor(1, 1, 0,
+			TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+
+	// Suspects the AVDs whose heartbeats stopped
+	private final FailureDetector failureDetector = new FailureDetector(Constants.PHI_THRESHOLD,
+			Constants.HEARTBEAT_WINDOW, Constants.HEARTBEAT_MIN_STD_DEVIATION,
+			Constants.HEARTBEAT_INTERVAL, Constants.HEARTBEAT_MAX_INTERVAL,
+			System.currentTimeMillis());
+
+	// Read latencies of the other AVDs, to pick and hedge the replicas of a read
+	private final LatencyTracker latencies = new LatencyTracker(Constants.LATENCY_WINDOW,
+			Constants.HEDGE_PERCENTILE, Constants.MIN_HEDGE_DELAY, Constants.INITIAL_HEDGE_DELAY,
+			Constants.LATENCY_MAX_AGE);
+
+	// Counters, latency Histograms and gauges, queried with #stats or a STATS Message
+	private final Metrics metrics = new Metrics();
+
+	// Coordinator latencies, from the request to its answer
+	private final Histogram insertLatency = metrics.histogram("coordinator.insert");
+	private final Histogram bulkInsertLatency = metrics.histogram("coordinator.bulk_insert");
+	private final Histogram deleteLatency = metrics.histogram("coordinator.delete");
+	private final Histogram queryLatency = metrics.histogram("coordinator.query");
+	private final Histogram globalQueryLatency = metrics.histogram("coordinator.global_query");
+	private final Histogram recoveryLatency = metrics.histogram("recovery");
+
+	// Replica latencies of handling each kind of Message, by opcode
+	private final Histogram[] replicaLatencies = new Histogram[Message.MAX_OPCODE + 1];
+
+	private final AtomicLong failedWrites = metrics.counter("coordinator.write.failed");
+	private final AtomicLong hedgedReads = metrics.counter("coordinator.query.hedged");
+	private final AtomicLong readRepairs = metrics.counter("read_repair");
+	private final AtomicLong hintsStored = metrics.counter("hints.stored");
+	private final AtomicLong hintsReplayed = metrics.counter("hints.replayed");
+	private final AtomicLong antiEntropyRows = metrics.counter("anti_entropy.rows");
+	private final AtomicLong expiredRows = metrics.counter("expiry.swept");
+
+	// Connections other AVDs have open to my ServerTask
+	private final AtomicInteger inboundConnections = new AtomicInteger();
+
+	// Token ranges I store that no peer has synced me up on since my restart
+	private final Set<Integer> recoveringRanges =
+			Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	// RecoveryThreads still running, and when they started
+	private final AtomicInteger runningRecoveries = new AtomicInteger();
+	private volatile long recoveryStart;
+
+	// To represent my Consistent State
+	private volatile boolean isConsistent;
+
+	/**
+	 * The other AVDs are reached at peerHost, on twice their port number. Nothing
+	 * runs until start
+	 */
+	DynamoNode(String portNumber, List<String> seeds, InetAddress peerHost, Storage storage,
+			HintStore hintStore, ChangeLog changeLog) {
+		this.portNumber = portNumber;
+		this.seeds = seeds;
+		this.storage = storage;
+		this.readCache = storage instanceof ReadCache ? (ReadCache) storage : null;
+		this.hintStore = hintStore;
+		this.changeLog = changeLog;
+		this.connectionPool = new ConnectionPool(peerHost, handoffListener);
+
+		// Start from the seeds; gossip brings in the rest
+		allNodes = toNodes(seeds, Collections.<Node>emptyList());
+		ring = new Ring(seeds, Constants.VIRTUAL_NODES, Constants.REPLICATION_FACTOR);
+	}
+
+	/**
+	 * Listen on the address and join the Dynamo. After a restart (when I stored
+	 * something before) the peers sync me up in the background meanwhile
+	 */
+	void start(InetSocketAddress serverAddress, boolean isRestart) throws IOException {
+		// Join the seeds' view, which puts me on the Ring if I'm not a seed
+		membership = new Membership(getMyPort(), System.currentTimeMillis(), seeds);
+		if(!ring.getNodes().contains(getMyPort())) {
+			updateRing();
+		}
+		rebuildMerkleTrees();
+
+		registerMetrics();
+
+		// Initialize the Listener ServerTask Thread
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(serverAddress);
+		new ServerTask(serverChannel);
+
+		if(!isRestart) {
+			// I am executing for the first time
+			Log.d("ONCREATE_1", "MY FIRST EXECUTION");
+			isConsistent = true;
+		} else {
+			Log.d("ONCREATE_2", "ON SUBSEQUENT EXECUTION");
+
+			// Sync with every peer in the background and serve meanwhile. Until one
+			// peer has synced me up on a range, reads of its keys go to the others first
+			List<String> peers = new ArrayList<String>();
+			for(String peer : ring.getNodes()) {
+				if(!peer.equals(getMyPort())) {
+					peers.add(peer);
+					recoveringRanges.addAll(merkleTrees.getSharedRanges(peer));
+				}
+			}
+
+			recoveryStart = System.nanoTime();
+			long deadline = System.currentTimeMillis() + Constants.RECOVERY_TIMEOUT;
+			runningRecoveries.set(peers.size());
+			Log.d("ONCREATE_3", "RECOVERING " + recoveringRanges.size() + " RANGES");
+			for(String peer : peers) {
+				new RecoveryThread(peer, deadline);
+			}
+			if(peers.isEmpty()) {
+				finishRecovery();
+			}
+		}
+
+		new AntiEntropyThread();
+		new HeartbeatThread();
+		new GossipThread();
+		new ExpirySweeper();
+	}
+
+	// A version for a write coordinated here, newer than any this AVD saw
+	long newVersion() {
+		return clock.now();
+	}
+
+	/**
+	 * Send this insertion to every Node in the preference list. Returns the rows
+	 * changed locally, or -1 if too few replicas acknowledged it
+	 */
+	int insert(Row row, Consistency level) {
+		long start = System.nanoTime();
+		int insertedRows = replicateWrite(Message.INSERT, row, level);
+		insertLatency.recordSince(start);
+
+		return insertedRows;
+	}
+
+	/**
+	 * Insert many Rows with one BATCH Message per replica (per BULK_BATCH_SIZE Rows)
+	 * instead of one Message per Row and replica. All the batches are sent before
+	 * any acknowledgement is awaited, and every replica applies a batch in one
+	 * transaction. Returns the number of Rows acknowledged by enough replicas
+	 */
+	int bulkInsert(List<Row> rows, Consistency level) {
+		String myPort = getMyPort();
+		long start = System.nanoTime();
+
+		// Group the Rows by the replicas that store them
+		Map<String, List<Row>> rowsByReplica = new HashMap<String, List<Row>>();
+		for(Row row : rows) {
+			for(String replica : ring.getPreferenceList(row.getKey())) {
+				List<Row> replicaRows = rowsByReplica.get(replica);
+				if(replicaRows == null) {
+					replicaRows = new ArrayList<Row>();
+					rowsByReplica.put(replica, replicaRows);
+				}
+				replicaRows.add(row);
+			}
+		}
+
+		// Send every batch, then wait for all of them
+		Map<PendingRequest, List<Row>> batches = new HashMap<PendingRequest, List<Row>>();
+		Map<Row, Integer> acks = new IdentityHashMap<Row, Integer>();
+		for(Map.Entry<String, List<Row>> entry : rowsByReplica.entrySet()) {
+			String replica = entry.getKey();
+			List<Row> replicaRows = entry.getValue();
+
+			for(int from = 0 ; from < replicaRows.size() ; from += Constants.BULK_BATCH_SIZE) {
+				List<Row> batch = new ArrayList<Row>(replicaRows.subList(from,
+						Math.min(from + Constants.BULK_BATCH_SIZE, replicaRows.size())));
+
+				if(replica.equals(myPort)) {
+					applyBatch(batch);
+					countAcks(acks, batch);
+				} else if(!isAlive(replica)) {
+					// Suspected down, so don't wait on it; it gets the Rows when it's back
+					handoffListener.onUndelivered(replica, new Message(Message.BATCH, 0, myPort,
+							batch));
+				} else {
+					PendingRequest pendingBatch = pendingRequests.register(1);
+					batches.put(pendingBatch, batch);
+					connectionPool.send(new Message(Message.BATCH, pendingBatch.getRequestId(),
+							myPort, batch), replica);
+				}
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + Constants.WRITE_TIMEOUT;
+		for(Map.Entry<PendingRequest, List<Row>> entry : batches.entrySet()) {
+			PendingRequest pendingBatch = entry.getKey();
+			try {
+				if(!pendingBatch.await(1, Math.max(deadline - System.currentTimeMillis(), 0))
+						.isEmpty()) {
+					// Acknowledged by the replica, count it for each of its Rows
+					countAcks(acks, entry.getValue());
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} finally {
+				pendingRequests.remove(pendingBatch);
+			}
+		}
+
+		int insertedRows = 0;
+		for(Row row : rows) {
+			String [] replicas = ring.getPreferenceList(row.getKey());
+			Integer rowAcks = acks.get(row);
+			if(rowAcks != null &&
+					rowAcks >= level.required(replicas.length, Constants.WRITE_QUORUM)) {
+				insertedRows++;
+			}
+		}
+
+		bulkInsertLatency.recordSince(start);
+		if(insertedRows < rows.size()) {
+			failedWrites.addAndGet(rows.size() - insertedRows);
+			Log.e("ANKIT", "Only " + insertedRows + " of " + rows.size() +
+					" Rows Acknowledged By Enough Replicas");
+		}
+
+		return insertedRows;
+	}
+
+	private static void countAcks(Map<Row, Integer> acks, List<Row> batch) {
+		for(Row row : batch) {
+			Integer rowAcks = acks.get(row);
+			acks.put(row, rowAcks == null ? 1 : rowAcks + 1);
+		}
+	}
+
+	// The key's newest visible Row among its replicas, as many as the Consistency Level asks
+	List<Row> query(String key, Consistency level) {
+		long start = System.nanoTime();
+		List<Row> rows = readReplicas(key, level);
+		queryLatency.recordSince(start);
+
+		return rows;
+	}
+
+	// Every Row in my own table, tombstones included
+	List<Row> localDump() {
+		return readAllLocal();
+	}
+
+	// My metrics, as key (metric name) and value pairs
+	List<Row> stats() {
+		return statsRows("");
+	}
+
+	/**
+	 * The Sources of a global scan: every AVD streams its Rows page by page, and
+	 * the GlobalScanCursor merges them. Nothing is fetched yet, so the cursor
+	 * times the scan into getGlobalQueryLatency itself
+	 */
+	List<ScanSource> scanSources() {
+		List<ScanSource> sources = new ArrayList<ScanSource>();
+		for(String node : ring.getNodes()) {
+			if(node.equals(getMyPort())) {
+				sources.add(new LocalScanSource());
+			} else if(isAlive(node)) {
+				sources.add(new PeerScanSource(node));
+			}
+		}
+
+		Log.d("GDUMP", "Global Scan Over " + sources.size() + " AVDs");
+		return sources;
+	}
+
+	// Ask the replicas of the key, counting myself, until the Consistency Level is met
+	private List<Row> readReplicas(String key, Consistency level) {
+		String myPort = getMyPort();
+		String [] replicas = ring.getPreferenceList(key);
+		int requiredReplies = level.required(replicas.length, Constants.READ_QUORUM);
+
+		if(requiredReplies == 1 && ring.isReplica(key, myPort) && isRecovered(key)) {
+			// My own copy is enough, and usually cached
+			Row localRow = readLocal(key);
+			if(localRow != null) {
+				List<Row> rows = new ArrayList<Row>(1);
+				if(localRow.isVisible(System.currentTimeMillis())) {
+					rows.add(localRow);
+				}
+
+				return rows;
+			}
+		}
+
+		// Skip the replicas suspected to be down, unless too few would be left
+		List<String> targets = new ArrayList<String>(replicas.length);
+		for(String replica : replicas) {
+			if(replica.equals(myPort) || isAlive(replica)) {
+				targets.add(replica);
+			}
+		}
+		if(targets.size() < requiredReplies) {
+			targets = Arrays.asList(replicas);
+		}
+
+		// Ask myself first (free), then the fastest replicas. While my copy of the
+		// range is still recovering I'm asked last, only if the others fall short
+		List<String> orderedTargets = new ArrayList<String>(targets);
+		orderedTargets.remove(myPort);
+		latencies.sortByLatency(orderedTargets, System.currentTimeMillis());
+		if(targets.contains(myPort)) {
+			orderedTargets.add(isRecovered(key) ? 0 : orderedTargets.size(), myPort);
+		}
+
+		PendingRequest pointQuery = pendingRequests.register(orderedTargets.size());
+		try {
+			Row newest = awaitNewest(pointQuery, key, orderedTargets, requiredReplies);
+
+			List<Row> rows = new ArrayList<Row>(1);
+			if(newest != null && newest.isVisible(System.currentTimeMillis())) {
+				rows.add(newest);
+			}
+
+			return rows;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new ArrayList<Row>();
+		} finally {
+			pendingRequests.remove(pointQuery);
+		}
+	}
+
+	/**
+	 * Ask the replicas (in order) for the key and return the newest version of it
+	 * among the replies. Only the required number of replicas is asked at first;
+	 * one more is asked whenever the ones asked are slower than the hedge delay,
+	 * or all answered without the key (or too few answered). Gives up once every
+	 * replica answered or the timeout runs out. Replicas that answered with an
+	 * older copy are repaired in the background
+	 */
+	private Row awaitNewest(PendingRequest pointQuery, String key, List<String> replicas,
+			int requiredReplies) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		long deadline = start + Constants.REQUEST_TIMEOUT;
+		Message queryMessage = new Message(Message.QUERY, pointQuery.getRequestId(),
+				getMyPort(), key, null);
+
+		// When each asked replica was asked
+		Map<String, Long> askedAt = new HashMap<String, Long>();
+		int asked = 0;
+		while(asked < Math.min(requiredReplies, replicas.size())) {
+			askReplica(pointQuery, queryMessage, replicas.get(asked++), askedAt);
+		}
+
+		long nextHedge = start + latencies.getHedgeDelay();
+		int seenReplies = 0;
+
+		while(true) {
+			long now = System.currentTimeMillis();
+			long waitUntil = asked < replicas.size() ? Math.min(deadline, nextHedge) : deadline;
+			List<Message> replies = pointQuery.await(Math.max(requiredReplies, seenReplies + 1),
+					Math.max(waitUntil - now, 0));
+			now = System.currentTimeMillis();
+
+			Row newest = null;
+			for(int i = 0 ; i < replies.size() ; i++) {
+				Message reply = replies.get(i);
+				newest = Row.newest(newest, reply.getRow());
+
+				if(i >= seenReplies && !reply.getSender().equals(getMyPort())) {
+					latencies.record(reply.getSender(), pointQuery.getArrivalTime(i) -
+							askedAt.get(reply.getSender()), now);
+				}
+			}
+			seenReplies = replies.size();
+
+			boolean isAnswered = replies.size() >= requiredReplies && newest != null;
+			boolean isTimedOut = now >= deadline;
+			boolean allAnswered = replies.size() >= asked;
+
+			if(!isAnswered && !isTimedOut && asked < replicas.size() &&
+					(allAnswered || now >= nextHedge)) {
+				// Hedge: the replicas asked are slow, or didn't have enough to say
+				askReplica(pointQuery, queryMessage, replicas.get(asked++), askedAt);
+				hedgedReads.incrementAndGet();
+				nextHedge = now + latencies.getHedgeDelay();
+				continue;
+			}
+
+			if(isAnswered || isTimedOut || (allAnswered && asked == replicas.size())) {
+				if(replies.size() < requiredReplies) {
+					Log.e("ANKIT", "Only " + replies.size() + " of " + requiredReplies +
+							" Replies For Key Query");
+				}
+
+				// The ones that never answered count as taking the whole timeout
+				if(isTimedOut) {
+					for(String replica : askedAt.keySet()) {
+						if(!hasReplied(replies, replica)) {
+							latencies.record(replica, Constants.REQUEST_TIMEOUT, now);
+						}
+					}
+				}
+
+				if(newest != null) {
+					readRepair(newest, replies);
+				}
+
+				return newest;
+			}
+		}
+	}
+
+	private void askReplica(PendingRequest pointQuery, Message queryMessage, String replica,
+			Map<String, Long> askedAt) {
+		askedAt.put(replica, System.currentTimeMillis());
+
+		if(replica.equals(getMyPort())) {
+			// My own answer
+			pointQuery.addReply(queryReply(pointQuery.getRequestId(), queryMessage.getKey()));
+		} else {
+			connectionPool.send(queryMessage, replica);
+		}
+	}
+
+	private static boolean hasReplied(List<Message> replies, String replica) {
+		for(Message reply : replies) {
+			if(reply.getSender().equals(replica)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// Send the newest copy of a key to the replicas that answered with an older one
+	private void readRepair(final Row newest, final List<Message> replies) {
+		for(final Message reply : replies) {
+			if(!newest.isNewerThan(reply.getRow())) {
+				continue;
+			}
+
+			readRepairs.incrementAndGet();
+			backgroundTasks.execute(new Runnable() {
+				@Override
+				public void run() {
+					Log.d("READREPAIR", "Repairing " + newest.getKey() + " At " + reply.getSender());
+
+					if(reply.getSender().equals(getMyPort())) {
+						writeLocal(newest);
+					} else {
+						// Request id 0: the replica doesn't acknowledge repairs
+						connectionPool.send(new Message(Message.INSERT, 0, getMyPort(), newest),
+								reply.getSender());
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Send the deletion (a tombstone) to every Node in the preference list.
+	 * Returns the rows deleted locally, or -1 if too few replicas acknowledged it
+	 */
+	int delete(String key, Consistency level) {
+		long start = System.nanoTime();
+		int deletedRows = replicateWrite(Message.DELETE, Row.tombstone(key, clock.now()), level);
+		deleteLatency.recordSince(start);
+
+		return deletedRows;
+	}
+
+	// Utility Methods
+
+	/**
+	 * Send the insert or delete to every replica of its key, applying it here if
+	 * I am one, and wait until the Consistency Level's number of replicas acknowledged.
+	 * Returns the rows changed locally, or -1 if too few replicas acknowledged in time
+	 */
+	private int replicateWrite(byte opcode, Row row, Consistency level) {
+		String myPort = getMyPort();
+		String [] replicas = ring.getPreferenceList(row.getKey());
+		int requiredAcks = level.required(replicas.length, Constants.WRITE_QUORUM);
+
+		// Replicas suspected down get a hint instead of a message nobody would answer
+		List<String> targets = new ArrayList<String>(replicas.length);
+		for(String replica : replicas) {
+			if(replica.equals(myPort) || isAlive(replica)) {
+				targets.add(replica);
+			}
+		}
+
+		PendingRequest pendingWrite = pendingRequests.register(targets.size());
+		Message msgToSend = new Message(opcode, pendingWrite.getRequestId(), myPort, row);
+
+		int changedRows = 0;
+		for(String replica : replicas) {
+			if(replica.equals(myPort)) {
+				changedRows = writeLocal(row);
+				pendingWrite.addReply(new Message(Message.ACK, pendingWrite.getRequestId(),
+						myPort, row.getKey(), null));
+			} else if(!targets.contains(replica)) {
+				handoffListener.onUndelivered(replica, msgToSend);
+			} else {
+				connectionPool.send(msgToSend, replica);
+			}
+		}
+
+		List<Message> acks = new ArrayList<Message>();
+		try {
+			acks = pendingWrite.await(requiredAcks, Constants.WRITE_TIMEOUT);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pendingRequests.remove(pendingWrite);
+		}
+
+		if(acks.size() < requiredAcks) {
+			failedWrites.incrementAndGet();
+			Log.e("ANKIT", "Only " + acks.size() + " of " + requiredAcks +
+					" Acks For Key " + row.getKey());
+			return -1;
+		}
+
+		return changedRows;
+	}
+
+	// My answer to a key query: my copy of the key, or just the key if I don't have it
+	private Message queryReply(long requestId, String key) {
+		Row localRow = readLocal(key);
+		if(localRow == null) {
+			return new Message(Message.QUERY_REPLY, requestId, getMyPort(), key, null);
+		}
+
+		return new Message(Message.QUERY_REPLY, requestId, getMyPort(), localRow);
+	}
+
+	// Look the key up in my own table (tombstones included), null if I don't have it
+	private Row readLocal(String key) {
+		return storage.get(key);
+	}
+
+	// Every Row in my own table, tombstones included
+	private List<Row> readAllLocal() {
+		return storage.scan(null, Integer.MAX_VALUE, false);
+	}
+
+	// All my Rows in key order, read a page at a time instead of all at once
+	private Iterable<Row> localRows() {
+		return new Iterable<Row>() {
+			@Override
+			public Iterator<Row> iterator() {
+				return new Iterator<Row>() {
+					private List<Row> page = readPage(null, Constants.GLOBAL_SCAN_PAGE_SIZE, false);
+					private int index = 0;
+
+					@Override
+					public boolean hasNext() {
+						if(index == page.size() && page.size() == Constants.GLOBAL_SCAN_PAGE_SIZE) {
+							page = readPage(page.get(page.size() - 1).getKey(),
+									Constants.GLOBAL_SCAN_PAGE_SIZE, false);
+							index = 0;
+						}
+
+						return index < page.size();
+					}
+
+					@Override
+					public Row next() {
+						if(!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						return page.get(index++);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Up to pageSize of my Rows (tombstones included) with keys after afterKey,
+	 * in key order. Keys only leaves the values out
+	 */
+	private List<Row> readPage(String afterKey, int pageSize, boolean keysOnly) {
+		return storage.scan(afterKey, pageSize, keysOnly);
+	}
+
+	// Store a batch of Rows in one Storage batch, returns how many were newer than mine
+	private int applyBatch(List<Row> rows) {
+		List<String> changedKeys = new ArrayList<String>();
+
+		// Until the batch is stored, or a Ring swap could rebuild the MerkleTrees without it
+		ringLock.readLock().lock();
+		storage.beginBatch();
+		try {
+			for(Row row : rows) {
+				if(storeLocal(row) > 0) {
+					changedKeys.add(row.getKey());
+				}
+			}
+		} finally {
+			storage.endBatch();
+			ringLock.readLock().unlock();
+		}
+
+		// Logged once the batch is stored
+		if(!changedKeys.isEmpty()) {
+			changeLog.append(changedKeys);
+		}
+
+		return changedKeys.size();
+	}
+
+	/**
+	 * Store the Row in my own table unless I already have a newer copy of its key,
+	 * and log the change. Returns 1 if the Row was stored, 0 if it was stale
+	 */
+	private int writeLocal(Row row) {
+		int changed = storeLocal(row);
+		if(changed > 0) {
+			changeLog.append(Collections.singletonList(row.getKey()));
+		}
+
+		return changed;
+	}
+
+	// writeLocal without the ChangeLog, for writes inside a Storage batch
+	private int storeLocal(Row row) {
+		clock.observe(row.getVersion());
+
+		ringLock.readLock().lock();
+		ReentrantLock keyLock = keyLocks.lockFor(row.getKey());
+		keyLock.lock();
+		try {
+			Row existing = readLocal(row.getKey());
+			if(!row.isNewerThan(existing)) {
+				return 0;
+			}
+
+			storage.put(row);
+			merkleTrees.update(row.getKey(), existing, row);
+			return 1;
+		} finally {
+			keyLock.unlock();
+			ringLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace expired Rows by their tombstones. Not logged in the ChangeLog and
+	 * never sent anywhere: every replica sweeps its own copies
+	 */
+	private void sweepExpired(List<Row> expired) {
+		int swept = 0;
+
+		ringLock.readLock().lock();
+		storage.beginBatch();
+		try {
+			for(Row row : expired) {
+				swept += storeLocal(row.expire());
+			}
+		} finally {
+			storage.endBatch();
+			ringLock.readLock().unlock();
+		}
+
+		expiredRows.addAndGet(swept);
+	}
+
+	// Get my Port Number
+	String getMyPort() {
+		return portNumber;
+	}
+
+	// All the AVDs in the Dynamo, sorted
+	List<Node> getAllNodes() {
+		return allNodes;
+	}
+
+	Histogram getGlobalQueryLatency() {
+		return globalQueryLatency;
+	}
+
+	boolean isConsistent() {
+		return isConsistent;
+	}
+
+	// Get the Hash Value of a String
+	static String genHash(String input) throws NoSuchAlgorithmException {
+		/* Professor's Hack - Taken From SimpleDht */
+		return Ring.toHex(Ring.hash(input));
+	}
+
+	// The Clincher - Server Task
+	class ServerTask extends Thread {
+		// This class acts as a Listener Thread for the individual AVD
+		// One Selector watches every connection; complete Messages are
+		// handed to the worker pool so a slow request can't stall the rest
+		private final ServerSocketChannel serverChannel;
+		private final Selector selector;
+		private final ExecutorService workers;
+
+		ServerTask(ServerSocketChannel serverChannel) throws IOException {
+			this.serverChannel = serverChannel;
+			this.selector = Selector.open();
+			this.workers = Executors.newFixedThreadPool(Constants.WORKER_THREADS);
+
+			this.serverChannel.configureBlocking(false);
+			this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+			this.setName("ServerTask");
+			this.start();
+		}
+
+		public void run() {
+			// Log.d(TAG, "Inside Server Task");
+
+			while(true) {
+				try {
+					selector.select();
+				} catch(IOException e) {
+					Log.d("ANKIT", "" + e.getMessage());
+					continue;
+				}
+
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+				while(selectedKeys.hasNext()) {
+					SelectionKey selectionKey = selectedKeys.next();
+					selectedKeys.remove();
+
+					try {
+						if(!selectionKey.isValid()) {
+							continue;
+						}
+
+						if(selectionKey.isAcceptable()) {
+							accept();
+						} else if(selectionKey.isReadable()) {
+							read(selectionKey);
+						}
+					} catch(IOException e) {
+						Log.d("ANKIT", "" + e.getMessage());
+						close(selectionKey);
+					}
+				}
+			}
+		}
+
+		private void accept() throws IOException {
+			SocketChannel clientChannel = serverChannel.accept();
+			if(clientChannel == null) {
+				return;
+			}
+
+			clientChannel.configureBlocking(false);
+			inboundConnections.incrementAndGet();
+
+			// Every connection gets its own buffer to assemble Messages in
+			clientChannel.register(selector, SelectionKey.OP_READ,
+					ByteBuffer.allocate(Constants.READ_BUFFER_SIZE));
+		}
+
+		private void read(SelectionKey selectionKey) throws IOException {
+			SocketChannel clientChannel = (SocketChannel) selectionKey.channel();
+			ByteBuffer bufferIn = (ByteBuffer) selectionKey.attachment();
+
+			int bytesRead = clientChannel.read(bufferIn);
+			if(bytesRead < 0) {
+				// The other AVD closed the connection
+				close(selectionKey);
+				return;
+			}
+
+			// Hand every complete frame to the workers
+			bufferIn.flip();
+			int frameLength = 0;
+			while(bufferIn.remaining() >= MessageCodec.LENGTH_PREFIX) {
+				frameLength = bufferIn.getInt(bufferIn.position());
+				if(frameLength < 0 || frameLength > Constants.MAX_MESSAGE_SIZE) {
+					throw new ProtocolException("Bad frame length " + frameLength);
+				}
+
+				if(bufferIn.remaining() < MessageCodec.LENGTH_PREFIX + frameLength) {
+					break;
+				}
+
+				// Decode this frame in place, then move past it
+				int frameEnd = bufferIn.position() + MessageCodec.LENGTH_PREFIX + frameLength;
+				int limit = bufferIn.limit();
+				bufferIn.position(bufferIn.position() + MessageCodec.LENGTH_PREFIX);
+				bufferIn.limit(frameEnd);
+				dispatch(MessageCodec.decode(bufferIn));
+				bufferIn.limit(limit);
+				bufferIn.position(frameEnd);
+				frameLength = 0;
+			}
+			bufferIn.compact();
+
+			if(bufferIn.capacity() < MessageCodec.LENGTH_PREFIX + frameLength) {
+				// A Message bigger than the buffer, e.g. a recovery dump
+				int newCapacity = bufferIn.capacity();
+				while(newCapacity < MessageCodec.LENGTH_PREFIX + frameLength) {
+					newCapacity *= 2;
+				}
+
+				ByteBuffer biggerBuffer = ByteBuffer.allocate(newCapacity);
+				bufferIn.flip();
+				biggerBuffer.put(bufferIn);
+				selectionKey.attach(biggerBuffer);
+			}
+		}
+
+		private void dispatch(final Message message) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					try {
+						handleMessage(message);
+
+						byte opcode = message.getOpcode();
+						if(opcode > 0 && opcode <= Message.MAX_OPCODE &&
+								replicaLatencies[opcode] != null) {
+							replicaLatencies[opcode].recordSince(start);
+						}
+					} catch(RuntimeException e) {
+						Log.e("ANKIT", "Bad Message " + message + " : " + e.getMessage());
+					}
+				}
+			});
+		}
+
+		private void close(SelectionKey selectionKey) {
+			if(selectionKey.channel() instanceof SocketChannel && selectionKey.isValid()) {
+				inboundConnections.decrementAndGet();
+			}
+			selectionKey.cancel();
+			try {
+				selectionKey.channel().close();
+			} catch(IOException e) {
+				Log.d("ANKIT", "" + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * SERVER TASK COMMENCES
+	 */
+	private void handleMessage(final Message message) {
+		switch(message.getOpcode()) {
+		case Message.INSERT:
+		case Message.DELETE:
+			// Apply the newly received write to self and acknowledge it
+			writeLocal(message.getRow());
+			if(message.getRequestId() != 0) {
+				connectionPool.send(new Message(Message.ACK, message.getRequestId(),
+						getMyPort(), message.getKey(), null), message.getSender());
+			}
+			break;
+
+		case Message.BATCH:
+		case Message.HANDOFF:
+			// A bulk insert, or writes I missed while I was down, acknowledged as one batch
+			applyBatch(message.getRows());
+			if(message.getRequestId() != 0) {
+				connectionPool.send(new Message(Message.ACK, message.getRequestId(),
+						getMyPort(), null, null), message.getSender());
+			}
+			break;
+
+		case Message.MERKLE_QUERY: {
+			// The hashes of my tree at the asked positions ([range, position...]),
+			// none if I don't store the range
+			MerkleTree tree = merkleTrees.getTree((int) message.getDigests()[0]);
+			long[] hashes = tree == null ? new long[0] : tree.getHashes(message.getDigests(), 1);
+
+			connectionPool.send(new Message(Message.MERKLE_REPLY, message.getRequestId(),
+					getMyPort(), hashes), message.getSender());
+			break;
+		}
+
+		case Message.SYNC_QUERY: {
+			// My Rows in the asked leaves ([range, leaf...])
+			long[] leaves = message.getDigests();
+			connectionPool.send(new Message(Message.SYNC_REPLY, message.getRequestId(),
+					getMyPort(), readLeaves((int) leaves[0], leaves)), message.getSender());
+			break;
+		}
+
+		case Message.CHANGES: {
+			// The sender saw my changes up to the sequence, and wants the ones after it
+			long seen = message.getDigests()[0];
+			List<String> peers = new ArrayList<String>(ring.getNodes());
+			peers.remove(getMyPort());
+			changeLog.acknowledge(message.getSender(), seen, peers);
+
+			connectionPool.send(changesReply(message.getRequestId(), message.getSender(), seen),
+					message.getSender());
+			break;
+		}
+
+		case Message.HEARTBEAT:
+			failureDetector.heartbeat(message.getSender(), System.currentTimeMillis());
+			break;
+
+		case Message.GOSSIP:
+		case Message.GOSSIP_REPLY: {
+			Membership view = membership;
+			if(view == null) {
+				// Still starting up, the sender will gossip again
+				break;
+			}
+
+			if(view.merge(Membership.fromMessage(message))) {
+				updateRing();
+			}
+
+			if(message.getOpcode() == Message.GOSSIP) {
+				connectionPool.send(view.toMessage(Message.GOSSIP_REPLY), message.getSender());
+			}
+			break;
+		}
+
+		case Message.QUERY:
+			// The Node which contains that key
+			connectionPool.send(queryReply(message.getRequestId(), message.getKey()),
+					message.getSender());
+			break;
+
+		case Message.STATS:
+			connectionPool.send(new Message(Message.STATS_REPLY, message.getRequestId(),
+					getMyPort(), statsRows("")), message.getSender());
+			break;
+
+		case Message.QUERY_REPLY:
+		case Message.STATS_REPLY:
+		case Message.GLOBAL_QUERY_REPLY:
+		case Message.MERKLE_REPLY:
+		case Message.SYNC_REPLY:
+		case Message.CHANGES_REPLY:
+		case Message.ACK:
+			// I am the initiator Node, wake up whoever waits for this reply
+			if(!pendingRequests.complete(message)) {
+				// Late reply to a request that already finished
+				Log.d("ANKIT", "Ignoring Reply " + message);
+			}
+			break;
+
+		case Message.GLOBAL_QUERY: {
+			// I am one of the participant for Global Query. The key is where the
+			// page starts (exclusive), digests are [page size, keys only]
+			long[] page = message.getDigests();
+			List<Row> rows = readPage(message.getKey(), (int) page[0], page[1] != 0);
+
+			// Send the Reply to the requester
+			connectionPool.send(new Message(Message.GLOBAL_QUERY_REPLY, message.getRequestId(),
+					getMyPort(), rows), message.getSender());
+			break;
+		}
+
+		default:
+			Log.e("ANKIT", "Unknown Message " + message);
+		}
+	}
+
+	/**
+	 * Hinted Handoff: a write that can't reach its replica is stored as a hint,
+	 * and the hints are replayed in batches as soon as the replica is reachable
+	 */
+	private final class HintedHandoff implements ClientTask.DeliveryListener {
+		@Override
+		public void onUndelivered(final String receiver, final Message message) {
+			// Only writes are worth a hint; an undelivered HANDOFF keeps its hints anyway
+			if(message.getOpcode() != Message.INSERT && message.getOpcode() != Message.DELETE &&
+					message.getOpcode() != Message.BATCH) {
+				return;
+			}
+
+			// Stored off the sender's thread, queued ahead of any replay to the receiver
+			backgroundTasks.execute(new Runnable() {
+				@Override
+				public void run() {
+					storeHints(receiver, message);
+				}
+			});
+		}
+
+		@Override
+		public void onConnected(final String receiver) {
+			if(!handoffTargets.add(receiver)) {
+				return;
+			}
+
+			backgroundTasks.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						replayHints(receiver);
+					} finally {
+						handoffTargets.remove(receiver);
+					}
+				}
+			});
+		}
+	}
+
+	// Keep the write the receiver missed until it's back
+	private void storeHints(String receiver, Message message) {
+		if(message.getOpcode() == Message.BATCH) {
+			for(Row row : message.getRows()) {
+				hintStore.add(receiver, row);
+			}
+			hintsStored.addAndGet(message.getRows().size());
+			Log.d("HANDOFF", message.getRows().size() + " Hints For " + receiver);
+		} else if(hintStore.add(receiver, message.getRow())) {
+			hintsStored.incrementAndGet();
+			Log.d("HANDOFF", "Hint For " + receiver + " : " + message.getKey());
+		}
+	}
+
+	// Send the target every write it missed, one acknowledged batch at a time
+	private void replayHints(String target) {
+		int replayed = 0;
+
+		while(true) {
+			List<Row> batch = hintStore.peek(target, Constants.HINT_BATCH_SIZE);
+			if(batch.isEmpty()) {
+				break;
+			}
+
+			PendingRequest handoff = pendingRequests.register(1);
+			try {
+				connectionPool.send(new Message(Message.HANDOFF, handoff.getRequestId(),
+						getMyPort(), batch), target);
+
+				if(handoff.await(1, Constants.HANDOFF_TIMEOUT).isEmpty()) {
+					// Down again, the next connection picks up from here
+					Log.e("HANDOFF", "No Ack From " + target + ", " + replayed + " Hints Replayed");
+					return;
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				pendingRequests.remove(handoff);
+			}
+
+			hintStore.remove(target, batch);
+			replayed += batch.size();
+			hintsReplayed.addAndGet(batch.size());
+		}
+
+		if(replayed > 0) {
+			Log.d("HANDOFF", replayed + " Hints Replayed To " + target);
+		}
+	}
+
+	// My own Rows for the global scan, read when the page is awaited
+	private final class LocalScanSource implements ScanSource {
+		private String afterKey;
+		private int pageSize;
+		private boolean keysOnly;
+
+		@Override
+		public String getName() {
+			return getMyPort();
+		}
+
+		@Override
+		public void requestPage(String afterKey, int pageSize, boolean keysOnly) {
+			this.afterKey = afterKey;
+			this.pageSize = pageSize;
+			this.keysOnly = keysOnly;
+		}
+
+		@Override
+		public List<Row> awaitPage(long deadline) {
+			return readPage(afterKey, pageSize, keysOnly);
+		}
+	}
+
+	// A peer's Rows for the global scan, one GLOBAL_QUERY per page
+	private final class PeerScanSource implements ScanSource {
+		private final String peer;
+		private PendingRequest pendingPage;
+
+		PeerScanSource(String peer) {
+			this.peer = peer;
+		}
+
+		@Override
+		public String getName() {
+			return peer;
+		}
+
+		@Override
+		public void requestPage(String afterKey, int pageSize, boolean keysOnly) {
+			pendingPage = pendingRequests.register(1);
+			connectionPool.send(new Message(Message.GLOBAL_QUERY, pendingPage.getRequestId(),
+					getMyPort(), afterKey, null, 0, false, Collections.<Row>emptyList(),
+					new long[] {pageSize, keysOnly ? 1 : 0}), peer);
+		}
+
+		@Override
+		public List<Row> awaitPage(long deadline) throws InterruptedException {
+			try {
+				List<Message> replies = pendingPage.await(1,
+						Math.max(deadline - System.currentTimeMillis(), 0));
+				return replies.isEmpty() ? null : replies.get(0).getRows();
+			} finally {
+				pendingRequests.remove(pendingPage);
+			}
+		}
+	}
+
+	/**
+	 * Catch up on the keys the peer changed since the last of its changes I saw,
+	 * a page at a time. If its ChangeLog doesn't go back that far, every range we
+	 * share is compared instead. The peer's ChangeLog may have lost its last keys
+	 * in a crash, so a range still recovering only counts as recovered once its
+	 * MerkleTree matched the peer's too; after a complete catch-up that's one
+	 * round trip per range. Returns the number of Rows that changed here, or -1
+	 * if the peer didn't answer or the deadline passed
+	 */
+	private int syncChanges(String peer, long deadline) throws InterruptedException {
+		int changedRows = 0;
+
+		while(true) {
+			if(System.currentTimeMillis() >= deadline) {
+				return -1;
+			}
+
+			Message reply = requestReply(peer, new Message(Message.CHANGES, 0, getMyPort(),
+					new long[] {changeLog.getSeen(peer)}));
+			if(reply == null) {
+				return -1;
+			}
+
+			// [-1, last sequence] if truncated, else [sequence caught up to, more to come]
+			long[] progress = reply.getDigests();
+			if(progress[0] < 0) {
+				int changed = syncSharedRanges(peer, deadline, false);
+				if(changed < 0) {
+					return -1;
+				}
+
+				changeLog.setSeen(peer, progress[1]);
+				return changedRows + changed;
+			}
+
+			changedRows += applyBatch(reply.getRows());
+			changeLog.setSeen(peer, progress[0]);
+			if(progress[1] == 0) {
+				int changed = syncSharedRanges(peer, deadline, true);
+				return changed < 0 ? -1 : changedRows + changed;
+			}
+		}
+	}
+
+	/**
+	 * Compare every range I share with the peer (or only the ones still
+	 * recovering), each one a recovered range once done
+	 */
+	private int syncSharedRanges(String peer, long deadline, boolean recoveringOnly)
+			throws InterruptedException {
+		int changedRows = 0;
+		for(int range : merkleTrees.getSharedRanges(peer)) {
+			if(recoveringOnly && !recoveringRanges.contains(range)) {
+				continue;
+			}
+
+			if(System.currentTimeMillis() >= deadline) {
+				return -1;
+			}
+
+			int changed = syncRange(range, peer);
+			if(changed < 0) {
+				return -1;
+			}
+
+			changedRows += changed;
+			recoveringRanges.remove(range);
+		}
+
+		return changedRows;
+	}
+
+	/**
+	 * My current Rows (tombstones included) of the keys I changed after the
+	 * sequence that the peer stores, with how far they go: [-1, last sequence]
+	 * if my ChangeLog doesn't go back to the sequence any more
+	 */
+	private Message changesReply(long requestId, String peer, long seen) {
+		if(!changeLog.covers(seen)) {
+			return new Message(Message.CHANGES_REPLY, requestId, getMyPort(), null, null, 0,
+					false, Collections.<Row>emptyList(),
+					new long[] {-1, changeLog.getLastSequence()});
+		}
+
+		List<ChangeLog.Change> changes = changeLog.after(seen, Constants.CHANGE_LOG_PAGE_SIZE);
+		List<Row> rows = new ArrayList<Row>(changes.size());
+		long caughtUpTo = seen;
+		for(ChangeLog.Change change : changes) {
+			if(ring.isReplica(change.getKey(), peer)) {
+				Row row = readLocal(change.getKey());
+				if(row != null) {
+					rows.add(row);
+				}
+			}
+			caughtUpTo = change.getSequence();
+		}
+
+		boolean hasMore = changes.size() == Constants.CHANGE_LOG_PAGE_SIZE;
+		return new Message(Message.CHANGES_REPLY, requestId, getMyPort(), null, null, 0, false,
+				rows, new long[] {caughtUpTo, hasMore ? 1 : 0});
+	}
+
+	/**
+	 * Anti-entropy with one peer over one shared token range. Both sides walk their
+	 * MerkleTree of the range from the root down, one level per round trip, and only
+	 * into the subtrees whose hashes differ. The Rows of the differing leaves are
+	 * then exchanged: I keep the peer's Rows that are newer than mine and send back
+	 * the ones where mine are newer. Returns the number of Rows that differed, or
+	 * -1 if the peer didn't answer in time
+	 */
+	private int syncRange(int range, String peer) throws InterruptedException {
+		MerkleTree tree = merkleTrees.getTree(range);
+		if(tree == null) {
+			return 0;
+		}
+
+		// Tree positions to compare this round, starting with the root
+		long[] request = {range, 0};
+
+		while(true) {
+			Message reply = requestReply(peer, new Message(Message.MERKLE_QUERY, 0,
+					getMyPort(), request));
+			if(reply == null) {
+				return -1;
+			}
+
+			long[] theirs = reply.getDigests();
+			long[] ours = tree.getHashes(request, 1);
+			if(theirs.length != ours.length) {
+				// The peer doesn't store this range (yet)
+				return 0;
+			}
+
+			List<Long> differing = new ArrayList<Long>();
+			for(int i = 0 ; i < ours.length ; i++) {
+				if(ours[i] != theirs[i]) {
+					differing.add(request[i + 1]);
+				}
+			}
+
+			if(differing.isEmpty()) {
+				return 0;
+			}
+
+			if(tree.isLeaf(differing.get(0))) {
+				long[] leaves = new long[differing.size() + 1];
+				leaves[0] = range;
+				for(int i = 0 ; i < differing.size() ; i++) {
+					leaves[i + 1] = tree.toLeaf(differing.get(i));
+				}
+
+				return syncLeaves(range, leaves, peer);
+			}
+
+			// Descend into the children of the differing positions
+			request = new long[2 * differing.size() + 1];
+			request[0] = range;
+			for(int i = 0 ; i < differing.size() ; i++) {
+				request[2 * i + 1] = 2 * differing.get(i) + 1;
+				request[2 * i + 2] = 2 * differing.get(i) + 2;
+			}
+		}
+	}
+
+	/**
+	 * Exchange the Rows of the leaves ([range, leaf...]) with the peer. The leaves
+	 * go in chunks of about SYNC_ROW_BATCH of my Rows (at least one leaf each), so
+	 * no transfer holds a whole range, and every chunk reads only its own leaves
+	 */
+	private int syncLeaves(int range, long[] leaves, String peer) throws InterruptedException {
+		int[] counts = merkleTrees.countKeys(range, Arrays.copyOfRange(leaves, 1, leaves.length));
+
+		int changedRows = 0;
+		int from = 1;
+		while(from < leaves.length) {
+			int to = from;
+			int rows = 0;
+			do {
+				rows += counts[to++ - 1];
+			} while(to < leaves.length && rows < Constants.SYNC_ROW_BATCH);
+
+			long[] chunk = new long[to - from + 1];
+			chunk[0] = range;
+			System.arraycopy(leaves, from, chunk, 1, to - from);
+
+			int changed = syncLeafChunk(range, chunk, peer);
+			if(changed < 0) {
+				return -1;
+			}
+			changedRows += changed;
+			from = to;
+		}
+
+		return changedRows;
+	}
+
+	// Swap the Rows of some leaves ([range, leaf...]) with the peer, applying theirs at once
+	private int syncLeafChunk(int range, long[] leaves, String peer) throws InterruptedException {
+		Message reply = requestReply(peer, new Message(Message.SYNC_QUERY, 0, getMyPort(), leaves));
+		if(reply == null) {
+			return -1;
+		}
+
+		Map<String, Row> theirRows = new HashMap<String, Row>();
+		for(Row row : reply.getRows()) {
+			theirRows.put(row.getKey(), row);
+		}
+		applyBatch(reply.getRows());
+
+		// Rows the peer is missing or has an older copy of
+		List<Row> newerRows = new ArrayList<Row>();
+		for(Row row : readLeaves(range, leaves)) {
+			if(row.isNewerThan(theirRows.get(row.getKey()))) {
+				newerRows.add(row);
+			}
+		}
+
+		if(!newerRows.isEmpty()) {
+			connectionPool.send(new Message(Message.HANDOFF, 0, getMyPort(), newerRows), peer);
+		}
+
+		Log.d("ANTIENTROPY", "Range " + range + " With " + peer + " : " + reply.getRows().size() +
+				" Rows Received, " + newerRows.size() + " Sent");
+
+		return reply.getRows().size() + newerRows.size();
+	}
+
+	// My Rows (tombstones included) in the leaves ([range, leaf...]) of the range, read
+	// by key from the leaf index: once the range is indexed, the cost follows the leaves
+	private List<Row> readLeaves(int range, long[] leaves) {
+		long[] leafIndices = Arrays.copyOfRange(leaves, 1, leaves.length);
+
+		List<Row> rows = new ArrayList<Row>();
+		for(String key : merkleTrees.getKeys(range, leafIndices)) {
+			Row row = readLocal(key);
+			if(row != null) {
+				rows.add(row);
+			}
+		}
+
+		return rows;
+	}
+
+	// Send the request to the peer and wait for its one reply, null on timeout
+	private Message requestReply(String peer, Message request) throws InterruptedException {
+		PendingRequest pending = pendingRequests.register(1);
+		try {
+			connectionPool.send(new Message(request.getOpcode(), pending.getRequestId(),
+					request.getSender(), request.getDigests()), peer);
+
+			List<Message> replies = pending.await(1, Constants.REQUEST_TIMEOUT);
+			return replies.isEmpty() ? null : replies.get(0);
+		} finally {
+			pendingRequests.remove(pending);
+		}
+	}
+
+	// Rebuild the MerkleTrees from my table, for the current Ring
+	private void rebuildMerkleTrees() {
+		MerkleTrees trees = new MerkleTrees(ring, getMyPort(), Constants.MERKLE_DEPTH,
+				storage, Constants.MERKLE_INDEX_MAX_KEYS);
+		for(Row row : localRows()) {
+			trees.update(row.getKey(), null, row);
+		}
+
+		merkleTrees = trees;
+	}
+
+	// Whether my copy of the key's range is up to date since my restart
+	private boolean isRecovered(String key) {
+		return recoveringRanges.isEmpty() || !recoveringRanges.contains(ring.getRange(key));
+	}
+
+	// Every RecoveryThread is done; ranges no peer could sync are left to anti-entropy
+	private void finishRecovery() {
+		if(!recoveringRanges.isEmpty()) {
+			Log.d("ONCREATE_4", recoveringRanges.size() + " RANGES LEFT TO ANTI-ENTROPY");
+			recoveringRanges.clear();
+		}
+
+		recoveryLatency.recordSince(recoveryStart);
+		isConsistent = true;
+		Log.d("ONCREATE_4", "RECOVERY FINISHED");
+	}
+
+	/**
+	 * Rebuild the Ring from the members, if they changed. Ranges move, so the
+	 * MerkleTrees are rebuilt too, with the local writes held off meanwhile.
+	 * Anti-entropy then hands every replica the ranges it gained
+	 */
+	private synchronized void updateRing() {
+		List<String> nodes = membership.getNodes();
+		if(new HashSet<String>(nodes).equals(new HashSet<String>(ring.getNodes()))) {
+			return;
+		}
+
+		ringLock.writeLock().lock();
+		try {
+			allNodes = toNodes(nodes, allNodes);
+			ring = new Ring(nodes, Constants.VIRTUAL_NODES, Constants.REPLICATION_FACTOR);
+			if(merkleTrees != null) {
+				rebuildMerkleTrees();
+			}
+		} finally {
+			ringLock.writeLock().unlock();
+		}
+
+		Log.d("GOSSIP", "RING IS NOW " + nodes);
+	}
+
+	// Node objects for the names, reusing the known ones (and their liveness), sorted
+	private static List<Node> toNodes(List<String> names, List<Node> known) {
+		List<Node> nodes = new ArrayList<Node>(names.size());
+		for(String name : names) {
+			Node node = null;
+			for(Node knownNode : known) {
+				if(knownNode.getMyNode().equals(name)) {
+					node = knownNode;
+				}
+			}
+
+			if(node == null) {
+				try {
+					node = new Node(name);
+				} catch(NoSuchAlgorithmException e) {
+					Log.e("ANKIT", "INSIDE THE EXCEPTION");
+					continue;
+				}
+			}
+			nodes.add(node);
+		}
+
+		Collections.sort(nodes);
+		return Collections.unmodifiableList(nodes);
+	}
+
+	// The replica Histograms and the gauges, read whenever the metrics are
+	private void registerMetrics() {
+		for(byte opcode = 1 ; opcode <= Message.MAX_OPCODE ; opcode++) {
+			String name = Message.nameOf(opcode);
+			if(name != null) {
+				replicaLatencies[opcode] = metrics.histogram("replica." + name);
+			}
+		}
+
+		metrics.gauge("outbound.queue_depth", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return connectionPool.getQueueDepth();
+			}
+		});
+		metrics.gauge("outbound.connections", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return connectionPool.getOpenConnections();
+			}
+		});
+		metrics.gauge("inbound.connections", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return inboundConnections.get();
+			}
+		});
+		metrics.gauge("recovery.ranges_pending", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return recoveringRanges.size();
+			}
+		});
+		metrics.gauge("anti_entropy.indexed_keys", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				MerkleTrees trees = merkleTrees;
+				return trees == null ? 0 : trees.getIndexedKeys();
+			}
+		});
+		metrics.gauge("pending_requests", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return pendingRequests.size();
+			}
+		});
+		metrics.gauge("background_tasks", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return backgroundTasks.getQueue().size();
+			}
+		});
+		metrics.gauge("ring.nodes", new Metrics.Gauge() {
+			@Override
+			public long getValue() {
+				return ring.getNodes().size();
+			}
+		});
+	}
+
+	// My metrics as Rows (key the metric's name after the prefix, value its value)
+	private List<Row> statsRows(String prefix) {
+		List<Row> rows = new ArrayList<Row>();
+		for(Map.Entry<String, Long> metric : metrics.snapshot().entrySet()) {
+			rows.add(new Row(prefix + metric.getKey(), String.valueOf(metric.getValue())));
+		}
+
+		ReadCache cache = readCache;
+		if(cache != null) {
+			rows.add(new Row(prefix + "cache.hits", String.valueOf(cache.getHits())));
+			rows.add(new Row(prefix + "cache.misses", String.valueOf(cache.getMisses())));
+			rows.add(new Row(prefix + "cache.evictions", String.valueOf(cache.getEvictions())));
+			rows.add(new Row(prefix + "cache.bytes", String.valueOf(cache.getSize())));
+		}
+
+		return rows;
+	}
+
+	// Every live AVD's metrics, asked for with one STATS Message each
+	List<Row> clusterStats() {
+		String myPort = getMyPort();
+		List<Row> rows = statsRows(myPort + "/");
+
+		List<String> peers = new ArrayList<String>();
+		for(String node : ring.getNodes()) {
+			if(!node.equals(myPort) && isAlive(node)) {
+				peers.add(node);
+			}
+		}
+
+		PendingRequest stats = pendingRequests.register(peers.size());
+		try {
+			for(String peer : peers) {
+				connectionPool.send(new Message(Message.STATS, stats.getRequestId(), myPort,
+						null, null), peer);
+			}
+
+			for(Message reply : stats.await(Constants.REQUEST_TIMEOUT)) {
+				for(Row row : reply.getRows()) {
+					rows.add(new Row(reply.getSender() + "/" + row.getKey(), row.getValue()));
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pendingRequests.remove(stats);
+		}
+
+		return rows;
+	}
+
+	// Whether the AVD isn't suspected to be down
+	private boolean isAlive(String port) {
+		for(Node node : allNodes) {
+			if(node.getMyNode().equals(port)) {
+				return node.getIsAlive();
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sends a HEARTBEAT to every other AVD every HEARTBEAT_INTERVAL, and marks
+	 * the AVDs alive or dead from the FailureDetector's verdict
+	 */
+	class HeartbeatThread extends Thread {
+		HeartbeatThread() {
+			setName("HeartbeatThread");
+			setDaemon(true);
+			start();
+		}
+
+		public void run() {
+			String myPort = getMyPort();
+			Message heartbeat = new Message(Message.HEARTBEAT, 0, myPort, null, null);
+
+			while(true) {
+				for(Node node : allNodes) {
+					if(!node.getMyNode().equals(myPort)) {
+						connectionPool.send(heartbeat, node.getMyNode());
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				for(Node node : allNodes) {
+					if(node.getMyNode().equals(myPort)) {
+						continue;
+					}
+
+					boolean isAlive = failureDetector.isAvailable(node.getMyNode(), now);
+					if(isAlive != node.getIsAlive()) {
+						Log.d("HEARTBEAT", node.getMyNode() + (isAlive ? " IS BACK" : " IS DOWN") +
+								", PHI " + failureDetector.phi(node.getMyNode(), now));
+						node.setIsAlive(isAlive);
+
+						if(isAlive) {
+							// Give it the writes it missed right away
+							handoffListener.onConnected(node.getMyNode());
+						}
+					}
+				}
+
+				try {
+					Thread.sleep(Constants.HEARTBEAT_INTERVAL);
+				} catch(InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Every GOSSIP_INTERVAL bumps my heartbeat and swaps views with a random live
+	 * member, and with a seed as well if that member isn't one (or none is alive),
+	 * so joining Nodes and split views always meet at the seeds
+	 */
+	class GossipThread extends Thread {
+		private final Random random = new Random();
+
+		GossipThread() {
+			setName("GossipThread");
+			setDaemon(true);
+			start();
+		}
+
+		public void run() {
+			String myPort = getMyPort();
+
+			while(true) {
+				try {
+					Thread.sleep(Constants.GOSSIP_INTERVAL);
+				} catch(InterruptedException e) {
+					return;
+				}
+
+				membership.beat();
+				Message gossip = membership.toMessage(Message.GOSSIP);
+
+				List<String> peers = new ArrayList<String>();
+				for(Node node : allNodes) {
+					if(!node.getMyNode().equals(myPort) && node.getIsAlive()) {
+						peers.add(node.getMyNode());
+					}
+				}
+
+				String peer = peers.isEmpty() ? null : peers.get(random.nextInt(peers.size()));
+				if(peer != null) {
+					connectionPool.send(gossip, peer);
+				}
+
+				if(peer == null || !seeds.contains(peer)) {
+					String seed = seeds.get(random.nextInt(seeds.size()));
+					if(!seed.equals(myPort) && !seed.equals(peer)) {
+						connectionPool.send(gossip, seed);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Brings me up to date with one peer after a restart: the keys it changed
+	 * while I was away, or every token range we share if its ChangeLog no longer
+	 * goes back that far; each synced range is ready to be read from me again.
+	 * Gives up on the peer at its first timeout, or at the recovery deadline
+	 */
+	class RecoveryThread extends Thread {
+		private final String peer;
+		private final long deadline;
+
+		RecoveryThread(String peer, long deadline) {
+			this.peer = peer;
+			this.deadline = deadline;
+			setName("RecoveryThread-" + peer);
+			setDaemon(true);
+			start();
+		}
+
+		public void run() {
+			int changedRows;
+			try {
+				changedRows = syncChanges(peer, deadline);
+				if(changedRows < 0) {
+					Log.d("RTHREAD_3", "NO ANSWER FROM " + peer + " IN TIME");
+					return;
+				}
+			} catch(InterruptedException e) {
+				Log.d("RTHREAD_3", "RECOVERY INTERRUPTED");
+				return;
+			} finally {
+				if(runningRecoveries.decrementAndGet() == 0) {
+					finishRecovery();
+				}
+			}
+
+			Log.d("RTHREAD_5", "RECOVERED " + changedRows + " ROWS FROM " + peer);
+		}
+	}
+
+	/**
+	 * Every EXPIRY_SWEEP_INTERVAL walks my table and sweeps the expired Rows,
+	 * EXPIRY_SWEEP_BATCH at a time with a pause in between, so a burst of expiries
+	 * can't hog the Storage. The MerkleTree digest of a swept Row is the same as
+	 * before, so sweeping costs no anti-entropy traffic either
+	 */
+	class ExpirySweeper extends Thread {
+		ExpirySweeper() {
+			setName("ExpirySweeper");
+			setDaemon(true);
+			start();
+		}
+
+		public void run() {
+			while(true) {
+				try {
+					Thread.sleep(Constants.EXPIRY_SWEEP_INTERVAL);
+
+					long now = System.currentTimeMillis();
+					List<Row> expired = new ArrayList<Row>();
+					for(Row row : localRows()) {
+						if(!row.isTombstone() && row.isExpired(now)) {
+							expired.add(row);
+						}
+
+						if(expired.size() == Constants.EXPIRY_SWEEP_BATCH) {
+							sweepExpired(expired);
+							expired.clear();
+							Thread.sleep(Constants.EXPIRY_SWEEP_PAUSE);
+						}
+					}
+
+					if(!expired.isEmpty()) {
+						sweepExpired(expired);
+					}
+				} catch(InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Background anti-entropy: every ANTI_ENTROPY_INTERVAL one (peer, range) pair is
+	 * synced, round robin, so replicas that missed writes converge without a restart
+	 */
+	class AntiEntropyThread extends Thread {
+		AntiEntropyThread() {
+			setName("AntiEntropyThread");
+			setDaemon(true);
+			start();
+		}
+
+		public void run() {
+			int next = 0;
+			long lastChangePull = System.currentTimeMillis();
+
+			while(true) {
+				try {
+					Thread.sleep(Constants.ANTI_ENTROPY_INTERVAL);
+
+					// Now and then catch up on the peers' ChangeLogs, which lets them truncate
+					if(System.currentTimeMillis() - lastChangePull >= Constants.CHANGE_PULL_INTERVAL) {
+						for(String peer : ring.getNodes()) {
+							if(!peer.equals(getMyPort()) &&
+									DynamoNode.this.isAlive(peer)) {
+								int changed = syncChanges(peer, Long.MAX_VALUE);
+								if(changed > 0) {
+									antiEntropyRows.addAndGet(changed);
+								}
+							}
+						}
+						lastChangePull = System.currentTimeMillis();
+					}
+
+					// Every (peer, range) pair I share with a peer, in a fixed order
+					List<String> peers = new ArrayList<String>();
+					List<Integer> ranges = new ArrayList<Integer>();
+					for(String peer : ring.getNodes()) {
+						if(peer.equals(getMyPort()) || !DynamoNode.this.isAlive(peer)) {
+							continue;
+						}
+
+						for(int range : merkleTrees.getSharedRanges(peer)) {
+							peers.add(peer);
+							ranges.add(range);
+						}
+					}
+
+					if(peers.isEmpty()) {
+						continue;
+					}
+
+					next = next % peers.size();
+					int changed = syncRange(ranges.get(next), peers.get(next));
+					if(changed > 0) {
+						antiEntropyRows.addAndGet(changed);
+					}
+					next++;
+				} catch(InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Phi Accrual Failure Detector (Hayashibara et al.)
+ *              Keeps a window of the intervals between the heartbeats of every
+ *              Node. Phi is how unlikely it is, given those intervals (taken as
+ *              normally distributed), to have heard nothing for this long:
+ *              phi = -log10(P(next heartbeat comes later than now)). A Node is
+ *              suspected once phi passes the threshold, so the detector adapts
+ *              to each Node's own delays instead of using a fixed timeout.
+ *              Gaps longer than maxInterval (an outage, not a delay) are left
+ *              out of the window, as Cassandra does, or one outage would keep
+ *              the next failure from being suspected until it left the window
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class FailureDetector {
+	private final double threshold;
+	private final int windowSize;
+	private final long minStdDeviation;
+	private final long expectedInterval;
+	private final long maxInterval;
+
+	// Nodes never heard from count as last heard from at this time
+	private final long startTime;
+
+	private final ConcurrentHashMap<String, ArrivalWindow> windows =
+			new ConcurrentHashMap<String, ArrivalWindow>();
+
+	public FailureDetector(double threshold, int windowSize, long minStdDeviation,
+			long expectedInterval, long maxInterval, long now) {
+		this.threshold = threshold;
+		this.windowSize = windowSize;
+		this.minStdDeviation = minStdDeviation;
+		this.expectedInterval = expectedInterval;
+		this.maxInterval = maxInterval;
+		this.startTime = now;
+	}
+
+	// A heartbeat of the Node arrived
+	public void heartbeat(String node, long now) {
+		ArrivalWindow window = windows.get(node);
+		if(window == null) {
+			ArrivalWindow newWindow = new ArrivalWindow(windowSize, expectedInterval,
+					maxInterval, now);
+			window = windows.putIfAbsent(node, newWindow);
+			if(window == null) {
+				return;
+			}
+		}
+
+		window.add(now);
+	}
+
+	// Suspicion level of the Node, 0 right after a heartbeat and growing until the next
+	public double phi(String node, long now) {
+		ArrivalWindow window = windows.get(node);
+		if(window == null) {
+			return phi(now - startTime, expectedInterval, Math.max(expectedInterval / 4, minStdDeviation));
+		}
+
+		synchronized(window) {
+			return phi(now - window.lastArrival, window.mean(),
+					Math.max(window.stdDeviation(), minStdDeviation));
+		}
+	}
+
+	public boolean isAvailable(String node, long now) {
+		return phi(node, now) < threshold;
+	}
+
+	// -log10 of the chance that a heartbeat takes longer than elapsed, using the logistic
+	// approximation of the normal distribution's tail
+	private static double phi(long elapsed, double mean, double stdDeviation) {
+		double y = (elapsed - mean) / stdDeviation;
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+
+		if(elapsed > mean) {
+			return -Math.log10(e / (1.0 + e));
+		}
+
+		return -Math.log10(1.0 - 1.0 / (1.0 + e));
+	}
+
+	// The last windowSize intervals between heartbeats of one Node
+	private static final class ArrivalWindow {
+		private final long[] intervals;
+		private int count;
+		private int next;
+		private double sum;
+		private double sumOfSquares;
+		private long lastArrival;
+		private final long maxInterval;
+
+		ArrivalWindow(int size, long expectedInterval, long maxInterval, long now) {
+			this.intervals = new long[size];
+			this.maxInterval = maxInterval;
+			this.lastArrival = now;
+
+			// Seed with the expected interval until real ones come in
+			record(expectedInterval);
+		}
+
+		synchronized void add(long now) {
+			long interval = now - lastArrival;
+			lastArrival = now;
+			if(interval > 0 && interval <= maxInterval) {
+				record(interval);
+			}
+		}
+
+		private void record(long interval) {
+			if(count == intervals.length) {
+				long oldest = intervals[next];
+				sum -= oldest;
+				sumOfSquares -= (double) oldest * oldest;
+			} else {
+				count++;
+			}
+
+			intervals[next] = interval;
+			next = (next + 1) % intervals.length;
+			sum += interval;
+			sumOfSquares += (double) interval * interval;
+		}
+
+		double mean() {
+			return sum / count;
+		}
+
+		double stdDeviation() {
+			double mean = mean();
+			return Math.sqrt(Math.max(sumOfSquares / count - mean * mean, 0));
+		}
+	}
+}
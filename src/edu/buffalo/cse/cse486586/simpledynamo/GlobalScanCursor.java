@@ -0,0 +1,275 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Cursor over the whole Dynamo (the * query) that never holds more
+ *              than one page per AVD plus one window of results
+ *              Every AVD (ScanSource) hands out its Rows in key order, one page at a
+ *              time. The Sources are merged by key, the newest copy of each key
+ *              wins and deleted (or, when the scan started, expired) keys are
+ *              skipped, so every key shows up once.
+ *              The count is taken by a first pass over keys and versions only,
+ *              on the first getCount(); the values are fetched lazily, window
+ *              by window, as the caller moves. That keys pass can't be avoided:
+ *              AbstractCursor's (final) moveToPosition asks for the count, and
+ *              so does handing the Cursor to another process. It is the price
+ *              of an exact count without holding any values. Writes made
+ *              between the two passes may or may not show up.
+ *              An AVD that misses a page deadline is left out of the rest of
+ *              the scan, so it costs one deadline
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.database.AbstractCursor;
+import android.util.Log;
+
+final class GlobalScanCursor extends AbstractCursor {
+	private static final String [] COLUMNS = {"key", "value"};
+
+	private final List<ScanSource> sources;
+	private final int pageSize;
+	private final long pageTimeout;
+
+	// Sources that missed a deadline, skipped from then on
+	private final Set<ScanSource> deadSources =
+			Collections.synchronizedSet(new HashSet<ScanSource>());
+
+	// Live keys, -1 until the keys pass ran
+	private int count = -1;
+
+	// When the scan started; Rows expired by then are left out of both passes
+	private final long startTime;
+
+	// The values pass and the window of Rows it produced last
+	private Merge merge;
+	private final List<Row> window;
+	private int windowStart;
+
+	// Times the whole scan: from creating the cursor until the values pass runs
+	// out or the cursor is closed, whichever comes first
+	private final Histogram latency;
+	private final long startNanos;
+	private boolean isRecorded;
+
+	GlobalScanCursor(List<ScanSource> sources, int pageSize, long pageTimeout,
+			Histogram latency) {
+		this.sources = sources;
+		this.pageSize = pageSize;
+		this.pageTimeout = pageTimeout;
+		this.window = new ArrayList<Row>(pageSize);
+		this.startTime = System.currentTimeMillis();
+		this.latency = latency;
+		this.startNanos = System.nanoTime();
+	}
+
+	@Override
+	public int getCount() {
+		if(count < 0) {
+			count = countRows();
+		}
+
+		return count;
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return COLUMNS;
+	}
+
+	@Override
+	public boolean onMove(int oldPosition, int newPosition) {
+		try {
+			if(merge == null || newPosition < windowStart) {
+				// First move, or moving back past the window: start the values pass over
+				merge = new Merge(false);
+				window.clear();
+				windowStart = 0;
+			}
+
+			while(newPosition >= windowStart + window.size()) {
+				windowStart += window.size();
+				window.clear();
+
+				while(window.size() < pageSize) {
+					Row row = merge.next();
+					if(row == null) {
+						recordLatency();
+						break;
+					}
+					window.add(row);
+				}
+
+				if(window.isEmpty()) {
+					// Keys deleted since the count pass
+					return false;
+				}
+			}
+
+			return true;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	@Override
+	public String getString(int column) {
+		Row row = window.get(getPosition() - windowStart);
+		return column == 0 ? row.getKey() : row.getValue();
+	}
+
+	@Override
+	public short getShort(int column) {
+		return Short.parseShort(getString(column));
+	}
+
+	@Override
+	public int getInt(int column) {
+		return Integer.parseInt(getString(column));
+	}
+
+	@Override
+	public long getLong(int column) {
+		return Long.parseLong(getString(column));
+	}
+
+	@Override
+	public float getFloat(int column) {
+		return Float.parseFloat(getString(column));
+	}
+
+	@Override
+	public double getDouble(int column) {
+		return Double.parseDouble(getString(column));
+	}
+
+	@Override
+	public boolean isNull(int column) {
+		return getString(column) == null;
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		recordLatency();
+	}
+
+	private void recordLatency() {
+		if(!isRecorded) {
+			isRecorded = true;
+			latency.recordSince(startNanos);
+		}
+	}
+
+	// The keys pass: count the live keys without fetching any value
+	private int countRows() {
+		int rows = 0;
+		try {
+			Merge keys = new Merge(true);
+			while(keys.next() != null) {
+				rows++;
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return rows;
+	}
+
+	// One pass over all the Sources, merged by key
+	private final class Merge {
+		private final boolean keysOnly;
+
+		// Per Source: its current page, the next Row of it, and whether more pages follow
+		private final List<Row>[] pages;
+		private final int[] indices;
+		private final boolean[] isFinished;
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Merge(boolean keysOnly) {
+			this.keysOnly = keysOnly;
+			this.pages = new List[sources.size()];
+			this.indices = new int[sources.size()];
+			this.isFinished = new boolean[sources.size()];
+
+			for(int i = 0 ; i < sources.size() ; i++) {
+				pages[i] = Collections.<Row>emptyList();
+			}
+		}
+
+		// The next live key in key order with its newest Row, null at the end
+		Row next() throws InterruptedException {
+			while(true) {
+				refill();
+
+				String minKey = null;
+				for(int i = 0 ; i < pages.length ; i++) {
+					if(indices[i] < pages[i].size()) {
+						String key = pages[i].get(indices[i]).getKey();
+						if(minKey == null || key.compareTo(minKey) < 0) {
+							minKey = key;
+						}
+					}
+				}
+
+				if(minKey == null) {
+					return null;
+				}
+
+				Row newest = null;
+				for(int i = 0 ; i < pages.length ; i++) {
+					if(indices[i] < pages[i].size() &&
+							pages[i].get(indices[i]).getKey().equals(minKey)) {
+						newest = Row.newest(newest, pages[i].get(indices[i]));
+						indices[i]++;
+					}
+				}
+
+				if(newest.isVisible(startTime)) {
+					return newest;
+				}
+			}
+		}
+
+		// Fetch the next page of every Source that ran out, all of them in parallel
+		private void refill() throws InterruptedException {
+			List<Integer> fetching = new ArrayList<Integer>();
+			for(int i = 0 ; i < pages.length ; i++) {
+				if(isFinished[i] || indices[i] < pages[i].size()) {
+					continue;
+				}
+
+				if(deadSources.contains(sources.get(i))) {
+					isFinished[i] = true;
+					continue;
+				}
+
+				String afterKey = pages[i].isEmpty() ? null :
+						pages[i].get(pages[i].size() - 1).getKey();
+				sources.get(i).requestPage(afterKey, pageSize, keysOnly);
+				fetching.add(i);
+			}
+
+			long deadline = System.currentTimeMillis() + pageTimeout;
+			for(int i : fetching) {
+				List<Row> page = sources.get(i).awaitPage(deadline);
+				if(page == null) {
+					Log.e("GDUMP", "No Page From " + sources.get(i).getName() + ", Skipping It");
+					deadSources.add(sources.get(i));
+					page = Collections.emptyList();
+				}
+
+				pages[i] = page;
+				indices[i] = 0;
+				isFinished[i] = page.size() < pageSize;
+			}
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Hinted Handoff store
+ *              Writes that could not be delivered to a replica are kept here
+ *              until that replica is reachable again. Only the newest write of
+ *              a key needs to be kept per replica
+ *              Implementations: SQLiteHintStore
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.List;
+
+public interface HintStore {
+	// Remember that the target missed this write. Returns false if it already has a newer hint
+	boolean add(String target, Row row);
+
+	// Up to limit of the hints for the target, oldest writes first
+	List<Row> peek(String target, int limit);
+
+	// Forget the delivered hints. A hint replaced by a newer write meanwhile is kept
+	void remove(String target, List<Row> delivered);
+
+	// Whether any write is waiting for the target
+	boolean hasHints(String target);
+}
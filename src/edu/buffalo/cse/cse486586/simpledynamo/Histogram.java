@@ -0,0 +1,100 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Lock free histogram of latencies (in microseconds)
+ *              Buckets are log-linear, as in HdrHistogram: every power of two is
+ *              split into SUB_BUCKETS equal buckets, so any recorded value is
+ *              reported within 1/SUB_BUCKETS (6%) of itself, from 1us up to
+ *              MAX_VALUE, in a few kB. Recording is one atomic increment per
+ *              counter; percentiles are computed when read
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class Histogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// Largest value told apart (about 12 days in us); larger ones count as it
+	private static final long MAX_VALUE = (1L << 40) - 1;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(bucketOf(MAX_VALUE) + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		value = Math.min(Math.max(value, 0), MAX_VALUE);
+
+		buckets.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax = max.get();
+		while(value > currentMax && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+
+	// Record the time since startNanos (a System.nanoTime()), in microseconds
+	public void recordSince(long startNanos) {
+		record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMean() {
+		long samples = count.get();
+		return samples == 0 ? 0 : sum.get() / samples;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	// The value at or below which the percentile (0 to 100) of the samples fall
+	public long getPercentile(double percentile) {
+		long samples = count.get();
+		if(samples == 0) {
+			return 0;
+		}
+
+		long rank = Math.max((long) Math.ceil(percentile / 100 * samples), 1);
+		long seen = 0;
+		for(int bucket = 0 ; bucket < buckets.length() ; bucket++) {
+			seen += buckets.get(bucket);
+			if(seen >= rank) {
+				return Math.min(highestValueOf(bucket), max.get());
+			}
+		}
+
+		// Samples recorded while counting
+		return max.get();
+	}
+
+	// Values below SUB_BUCKETS get a bucket each; above, SUB_BUCKETS per power of two
+	private static int bucketOf(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	private static long highestValueOf(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
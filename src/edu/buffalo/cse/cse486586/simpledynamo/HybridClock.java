@@ -0,0 +1,53 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Hybrid Logical Clock used to version every write
+ *              A version is the wall clock time in milliseconds shifted left by
+ *              LOGICAL_BITS, plus a logical counter. Versions handed out by one AVD
+ *              always increase, and observing a remote version moves the clock past
+ *              it, so causally later writes always get higher versions even when
+ *              the AVDs' wall clocks disagree
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class HybridClock {
+	// Bits reserved for the logical counter
+	static final int LOGICAL_BITS = 16;
+
+	private final AtomicLong lastVersion;
+
+	public HybridClock() {
+		lastVersion = new AtomicLong(0);
+	}
+
+	// A version higher than every version handed out or observed so far
+	public long now() {
+		long physical = System.currentTimeMillis() << LOGICAL_BITS;
+		while(true) {
+			long last = lastVersion.get();
+			long next = Math.max(physical, last + 1);
+			if(lastVersion.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	// Make sure later versions of this clock are higher than a version seen elsewhere
+	public void observe(long remoteVersion) {
+		while(true) {
+			long last = lastVersion.get();
+			if(remoteVersion <= last || lastVersion.compareAndSet(last, remoteVersion)) {
+				return;
+			}
+		}
+	}
+
+	// Wall clock time (ms) at which the version was created
+	public static long toMillis(long version) {
+		return version >>> LOGICAL_BITS;
+	}
+}
@@ -0,0 +1,41 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Striped locks for keys
+ *              Writes to the same key are ordered, while writes to different keys
+ *              (almost always on different stripes) run in parallel
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+public final class KeyLocks {
+	private final ReentrantLock[] stripes;
+	private final int mask;
+
+	// The number of stripes is rounded up to a power of two
+	public KeyLocks(int minStripes) {
+		int size = 1;
+		while(size < minStripes) {
+			size <<= 1;
+		}
+
+		stripes = new ReentrantLock[size];
+		for(int i = 0 ; i < size ; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+
+		mask = size - 1;
+	}
+
+	// The lock guarding the key
+	public ReentrantLock lockFor(String key) {
+		int hash = key.hashCode();
+
+		// Spread the high bits, String.hashCode() is weak in the low ones
+		hash ^= (hash >>> 16);
+		return stripes[hash & mask];
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Read latencies of the other AVDs
+ *              Keeps an exponentially weighted moving average per AVD, used to
+ *              ask the fastest replicas first, and a window of the latest
+ *              latencies of all AVDs, whose percentile is how long a read waits
+ *              before it hedges with another replica. An average older than
+ *              maxAge is forgotten, so an AVD that was slow once gets tried again
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class LatencyTracker {
+	// Weight of the newest sample in the moving average
+	private static final double ALPHA = 0.2;
+
+	// The hedge delay is recomputed after this many samples
+	private static final int RECOMPUTE_INTERVAL = 32;
+
+	private final long maxAge;
+	private final double percentile;
+	private final long minHedgeDelay;
+
+	private final ConcurrentHashMap<String, Average> averages =
+			new ConcurrentHashMap<String, Average>();
+
+	// Latest samples of all the AVDs, a ring buffer guarded by itself
+	private final long[] window;
+	private int count;
+	private int next;
+	private int sinceRecompute;
+	private volatile long hedgeDelay;
+
+	// The moving average of one AVD. Immutable, replaced on every sample
+	private static final class Average {
+		final double latency;
+		final long updatedAt;
+
+		Average(double latency, long updatedAt) {
+			this.latency = latency;
+			this.updatedAt = updatedAt;
+		}
+	}
+
+	public LatencyTracker(int windowSize, double percentile, long minHedgeDelay,
+			long initialHedgeDelay, long maxAge) {
+		this.window = new long[windowSize];
+		this.percentile = percentile;
+		this.minHedgeDelay = minHedgeDelay;
+		this.hedgeDelay = initialHedgeDelay;
+		this.maxAge = maxAge;
+	}
+
+	// The AVD answered after latency ms
+	public void record(String node, long latency, long now) {
+		while(true) {
+			Average average = averages.get(node);
+			if(average == null || now - average.updatedAt > maxAge) {
+				Average first = new Average(latency, now);
+				if(average == null ? averages.putIfAbsent(node, first) == null :
+						averages.replace(node, average, first)) {
+					break;
+				}
+			} else if(averages.replace(node, average, new Average(
+					ALPHA * latency + (1 - ALPHA) * average.latency, now))) {
+				break;
+			}
+		}
+
+		synchronized(window) {
+			window[next] = latency;
+			next = (next + 1) % window.length;
+			if(count < window.length) {
+				count++;
+			}
+
+			if(++sinceRecompute == RECOMPUTE_INTERVAL) {
+				sinceRecompute = 0;
+
+				long[] samples = Arrays.copyOf(window, count);
+				Arrays.sort(samples);
+				int index = (int) Math.ceil(percentile / 100 * count) - 1;
+				hedgeDelay = Math.max(samples[Math.max(index, 0)], minHedgeDelay);
+			}
+		}
+	}
+
+	// Moving average latency of the AVD, 0 if it has no recent one (so it gets tried)
+	public double getLatency(String node, long now) {
+		Average average = averages.get(node);
+		if(average == null || now - average.updatedAt > maxAge) {
+			return 0;
+		}
+
+		return average.latency;
+	}
+
+	// How long a read waits for its replicas before asking one more
+	public long getHedgeDelay() {
+		return hedgeDelay;
+	}
+
+	// Sort the AVDs fastest first
+	public void sortByLatency(List<String> nodes, long now) {
+		// Read every average once, they may change while sorting
+		final Map<String, Double> latencies = new HashMap<String, Double>();
+		for(String node : nodes) {
+			latencies.put(node, getLatency(node, now));
+		}
+
+		Collections.sort(nodes, new Comparator<String>() {
+			@Override
+			public int compare(String lhs, String rhs) {
+				return Double.compare(latencies.get(lhs), latencies.get(rhs));
+			}
+		});
+	}
+}
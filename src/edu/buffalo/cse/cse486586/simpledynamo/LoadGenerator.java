@@ -0,0 +1,252 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   YCSB style load generator
+ *              First loads recordCount keys, then runs operationCount reads and
+ *              updates (mixed by readProportion) from a number of threads, picking
+ *              keys uniformly or Zipfian. Every operation is timed into a
+ *              Histogram; the Report has the throughput and the percentiles of
+ *              both phases. The Store it drives is anything with a put and a
+ *              get: the ContentProvider from the app, or a Storage on a JVM
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class LoadGenerator {
+	// What the load runs against
+	public interface Store {
+		void put(String key, String value) throws Exception;
+
+		// The value of the key, null if it has none
+		String get(String key) throws Exception;
+	}
+
+	// The shape of one run
+	public static final class Workload {
+		private final long recordCount;
+		private final long operationCount;
+		private final double readProportion;
+		private final int valueSize;
+		private final int threads;
+
+		// Zipfian constant, 0 for uniformly chosen keys
+		private final double zipfianConstant;
+
+		public Workload(long recordCount, long operationCount, double readProportion,
+				int valueSize, int threads, double zipfianConstant) {
+			if(recordCount < 1 || operationCount < 0 || readProportion < 0 ||
+					readProportion > 1 || valueSize < 0 || threads < 1) {
+				throw new IllegalArgumentException("Bad Workload");
+			}
+
+			this.recordCount = recordCount;
+			this.operationCount = operationCount;
+			this.readProportion = readProportion;
+			this.valueSize = valueSize;
+			this.threads = threads;
+			this.zipfianConstant = zipfianConstant;
+		}
+
+		@Override
+		public String toString() {
+			return recordCount + " records, " + operationCount + " operations, " +
+					Math.round(readProportion * 100) + "% reads, " + valueSize + "B values, " +
+					threads + " threads, " + (zipfianConstant > 0 ?
+					"zipfian " + zipfianConstant : "uniform") + " keys";
+		}
+	}
+
+	// Throughput and latencies (in microseconds) of one phase
+	public static final class Phase {
+		private final String name;
+		private final long elapsedNanos;
+		private final Histogram reads;
+		private final Histogram writes;
+		private final long failures;
+		private final long misses;
+
+		Phase(String name, long elapsedNanos, Histogram reads, Histogram writes, long failures,
+				long misses) {
+			this.name = name;
+			this.elapsedNanos = elapsedNanos;
+			this.reads = reads;
+			this.writes = writes;
+			this.failures = failures;
+			this.misses = misses;
+		}
+
+		public long getOperations() {
+			return reads.getCount() + writes.getCount();
+		}
+
+		// Operations per second
+		public double getThroughput() {
+			return elapsedNanos == 0 ? 0 : getOperations() * 1e9 / elapsedNanos;
+		}
+
+		public Histogram getReads() {
+			return reads;
+		}
+
+		public Histogram getWrites() {
+			return writes;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		// Reads that found no value
+		public long getMisses() {
+			return misses;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder report = new StringBuilder();
+			report.append(name).append(": ").append(getOperations()).append(" ops in ")
+					.append(elapsedNanos / 1000000).append(" ms, ")
+					.append(Math.round(getThroughput())).append(" ops/s");
+			if(failures > 0) {
+				report.append(", ").append(failures).append(" failed");
+			}
+			if(misses > 0) {
+				report.append(", ").append(misses).append(" reads missed");
+			}
+			report.append('\n');
+
+			append(report, "READ", reads);
+			append(report, "WRITE", writes);
+			return report.toString();
+		}
+
+		private static void append(StringBuilder report, String operation, Histogram latencies) {
+			if(latencies.getCount() == 0) {
+				return;
+			}
+
+			report.append("  ").append(operation).append(" us: mean ").append(latencies.getMean())
+					.append(", p50 ").append(latencies.getPercentile(50))
+					.append(", p95 ").append(latencies.getPercentile(95))
+					.append(", p99 ").append(latencies.getPercentile(99))
+					.append(", p999 ").append(latencies.getPercentile(99.9))
+					.append(", max ").append(latencies.getMax()).append('\n');
+		}
+	}
+
+	// Both phases of a run
+	public static final class Report {
+		private final Workload workload;
+		private final Phase load;
+		private final Phase run;
+
+		Report(Workload workload, Phase load, Phase run) {
+			this.workload = workload;
+			this.load = load;
+			this.run = run;
+		}
+
+		public Phase getLoad() {
+			return load;
+		}
+
+		public Phase getRun() {
+			return run;
+		}
+
+		@Override
+		public String toString() {
+			return workload + "\n" + load + run;
+		}
+	}
+
+	private final Store store;
+	private final Workload workload;
+	private final String value;
+
+	public LoadGenerator(Store store, Workload workload) {
+		this.store = store;
+		this.workload = workload;
+
+		StringBuilder valueBuilder = new StringBuilder(workload.valueSize);
+		while(valueBuilder.length() < workload.valueSize) {
+			valueBuilder.append((char) ('a' + valueBuilder.length() % 26));
+		}
+		this.value = valueBuilder.toString();
+	}
+
+	// The name of the i-th record, the same on every run
+	public static String keyOf(long record) {
+		return "user" + record;
+	}
+
+	public Report run() throws InterruptedException {
+		Phase load = runPhase("LOAD", workload.recordCount, true);
+		Phase run = runPhase("RUN", workload.operationCount, false);
+
+		return new Report(workload, load, run);
+	}
+
+	// Run the operations over the threads, each thread taking its share
+	private Phase runPhase(String name, final long operations, final boolean isLoad)
+			throws InterruptedException {
+		final Histogram reads = new Histogram();
+		final Histogram writes = new Histogram();
+		final AtomicLong failures = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+
+		final ZipfianGenerator zipfian = workload.zipfianConstant > 0 ?
+				new ZipfianGenerator(workload.recordCount, workload.zipfianConstant, true) : null;
+
+		List<Thread> threads = new ArrayList<Thread>(workload.threads);
+		for(int t = 0 ; t < workload.threads ; t++) {
+			final long from = operations * t / workload.threads;
+			final long to = operations * (t + 1) / workload.threads;
+			final Random random = new Random(31L * t + (isLoad ? 1 : 2));
+
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(long i = from ; i < to ; i++) {
+						boolean isRead = !isLoad && random.nextDouble() < workload.readProportion;
+						long record = isLoad ? i : zipfian != null ? zipfian.next(random) :
+								(random.nextLong() & Long.MAX_VALUE) % workload.recordCount;
+						String key = keyOf(record);
+
+						long start = System.nanoTime();
+						try {
+							if(isRead) {
+								if(store.get(key) == null) {
+									misses.incrementAndGet();
+								}
+								reads.recordSince(start);
+							} else {
+								store.put(key, value);
+								writes.recordSince(start);
+							}
+						} catch(Exception e) {
+							failures.incrementAndGet();
+						}
+					}
+				}
+			}, "LoadGenerator-" + name + "-" + t));
+		}
+
+		long start = System.nanoTime();
+		for(Thread thread : threads) {
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+
+		return new Phase(name, System.nanoTime() - start, reads, writes, failures.get(),
+				misses.get());
+	}
+}
@@ -0,0 +1,593 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Log-structured Storage
+ *              Every put is appended to a write-ahead log and applied to a sorted
+ *              in-memory memtable. A full memtable is written in the background
+ *              as an immutable sorted Segment and its log is dropped. Lookups go
+ *              memtable, then the Segments from newest to oldest; scans merge them
+ *              all by key. Once COMPACTION_TRIGGER Segments pile up they are merged
+ *              into one in the background. Tombstones are kept, since the replicas
+ *              need them to order deletes
+ *              Log record : [int length][int CRC32 of the Row][Row as in Segment]
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+public final class LogStructuredStorage implements Storage {
+	private static final String LOG_PREFIX = "wal-";
+	private static final String LOG_SUFFIX = ".log";
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+
+	// Rough per Row overhead of the memtable, on top of the key and value characters
+	private static final int ROW_OVERHEAD = 64;
+
+	private final File directory;
+	private final long memtableLimit;
+	private final int compactionTrigger;
+
+	// Flushes and compactions, one at a time
+	private final ExecutorService backgroundTasks;
+
+	// Newest Rows, and the previous memtable while it is being flushed (or null)
+	private volatile ConcurrentSkipListMap<String, Row> memtable;
+	private volatile ConcurrentSkipListMap<String, Row> flushing;
+
+	// Newest first. Replaced, never modified, so readers can use a snapshot
+	private volatile List<Segment> segments;
+
+	// Guarded by this
+	private long memtableBytes;
+	private long nextSequence;
+	private File logFile;
+	private FileOutputStream logFileOut;
+	private DataOutputStream logOut;
+	private int batchDepth;
+	private boolean isCompacting;
+
+	private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+	private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+	private final CRC32 crc = new CRC32();
+
+	public LogStructuredStorage(File directory, long memtableLimit, int compactionTrigger)
+			throws IOException {
+		this.directory = directory;
+		this.memtableLimit = memtableLimit;
+		this.compactionTrigger = Math.max(compactionTrigger, 2);
+		this.backgroundTasks = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "LogStructuredStorage");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can't create " + directory);
+		}
+
+		open();
+	}
+
+	@Override
+	public Row get(String key) {
+		Row row = memtable.get(key);
+		if(row != null) {
+			return row;
+		}
+
+		ConcurrentSkipListMap<String, Row> flushingTable = flushing;
+		if(flushingTable != null && (row = flushingTable.get(key)) != null) {
+			return row;
+		}
+
+		List<Segment> snapshot = acquireSegments();
+		try {
+			for(Segment segment : snapshot) {
+				row = segment.get(key);
+				if(row != null) {
+					return row;
+				}
+			}
+
+			return null;
+		} catch(IOException e) {
+			throw new IllegalStateException("Can't read key " + key, e);
+		} finally {
+			releaseSegments(snapshot);
+		}
+	}
+
+	@Override
+	public synchronized void put(Row row) {
+		try {
+			appendToLog(row);
+			if(batchDepth == 0) {
+				syncLog();
+			}
+		} catch(IOException e) {
+			throw new IllegalStateException("Can't write the log", e);
+		}
+
+		Row previous = memtable.put(row.getKey(), row);
+		memtableBytes += sizeOf(row) - (previous == null ? 0 : sizeOf(previous));
+
+		if(batchDepth == 0) {
+			maybeFlush();
+		}
+	}
+
+	@Override
+	public List<Row> scan(String afterKey, int limit, boolean keysOnly) {
+		List<Iterator<Row>> sources = new ArrayList<Iterator<Row>>();
+		sources.add(tail(memtable, afterKey));
+
+		ConcurrentSkipListMap<String, Row> flushingTable = flushing;
+		if(flushingTable != null) {
+			sources.add(tail(flushingTable, afterKey));
+		}
+
+		List<Segment> snapshot = acquireSegments();
+		try {
+			for(Segment segment : snapshot) {
+				sources.add(segment.iterator(afterKey));
+			}
+
+			List<Row> rows = new ArrayList<Row>();
+			Iterator<Row> merged = merge(sources);
+			while(rows.size() < limit && merged.hasNext()) {
+				Row row = merged.next();
+				rows.add(keysOnly ? new Row(row.getKey(), null, row.getVersion(),
+						row.isTombstone(), row.getExpiresAt()) : row);
+			}
+
+			return rows;
+		} finally {
+			releaseSegments(snapshot);
+		}
+	}
+
+	@Override
+	public synchronized void beginBatch() {
+		batchDepth++;
+	}
+
+	@Override
+	public synchronized void endBatch() {
+		if(--batchDepth > 0) {
+			return;
+		}
+
+		try {
+			syncLog();
+		} catch(IOException e) {
+			throw new IllegalStateException("Can't write the log", e);
+		}
+
+		maybeFlush();
+	}
+
+	@Override
+	public synchronized void clear() {
+		awaitFlush();
+
+		for(Segment segment : segments) {
+			segment.retire(true);
+		}
+		segments = Collections.emptyList();
+
+		memtable = new ConcurrentSkipListMap<String, Row>();
+		memtableBytes = 0;
+
+		try {
+			File oldLog = logFile;
+			openLog();
+			oldLog.delete();
+		} catch(IOException e) {
+			throw new IllegalStateException("Can't reset the log", e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		backgroundTasks.shutdown();
+
+		try {
+			logOut.close();
+		} catch(IOException e) {
+			// The log was synced after every put or batch
+		}
+
+		for(Segment segment : segments) {
+			segment.retire(false);
+		}
+		segments = Collections.emptyList();
+	}
+
+	// Number of Segment files, for tests and tuning
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Load the Segments, replay the logs left by the last run into a Segment
+	 * of their own, and start a fresh log
+	 */
+	private synchronized void open() throws IOException {
+		List<Segment> loaded = new ArrayList<Segment>();
+		List<File> logs = new ArrayList<File>();
+
+		File[] files = directory.listFiles();
+		if(files == null) {
+			throw new IOException("Can't list " + directory);
+		}
+		Arrays.sort(files);
+
+		for(File file : files) {
+			String name = file.getName();
+			if(name.endsWith(".tmp") || name.endsWith(".merge")) {
+				// Unfinished flush or compaction
+				file.delete();
+			} else if(name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+				long sequence = sequenceOf(name, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+				loaded.add(Segment.open(file, sequence));
+				nextSequence = Math.max(nextSequence, sequence + 1);
+			} else if(name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX)) {
+				logs.add(file);
+				nextSequence = Math.max(nextSequence, sequenceOf(name, LOG_PREFIX, LOG_SUFFIX) + 1);
+			}
+		}
+
+		// The file names sort by sequence; the newest Segment comes first
+		Collections.reverse(loaded);
+		segments = Collections.unmodifiableList(loaded);
+
+		memtable = new ConcurrentSkipListMap<String, Row>();
+		for(File log : logs) {
+			replayLog(log, memtable);
+		}
+
+		if(!memtable.isEmpty()) {
+			long sequence = nextSequence++;
+			Segment segment = Segment.write(segmentFile(sequence), sequence,
+					memtable.values().iterator(), memtable.size());
+			addSegment(segment);
+			memtable = new ConcurrentSkipListMap<String, Row>();
+		}
+
+		for(File log : logs) {
+			log.delete();
+		}
+
+		openLog();
+	}
+
+	private void replayLog(File log, NavigableMap<String, Row> table) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+		try {
+			while(true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch(EOFException e) {
+					break;
+				}
+
+				int checksum = in.readInt();
+				byte[] record = new byte[length];
+				in.readFully(record);
+
+				crc.reset();
+				crc.update(record, 0, length);
+				if((int) crc.getValue() != checksum) {
+					// Torn write at the end of the log, the rest was never acknowledged
+					break;
+				}
+
+				Row row = Segment.readRow(new DataInputStream(new ByteArrayInputStream(record)));
+				table.put(row.getKey(), row);
+			}
+		} catch(EOFException e) {
+			// Torn write at the end of the log
+		} finally {
+			in.close();
+		}
+	}
+
+	private void openLog() throws IOException {
+		if(logOut != null) {
+			logOut.close();
+		}
+
+		logFile = new File(directory, LOG_PREFIX + String.format("%016d", nextSequence++) + LOG_SUFFIX);
+		logFileOut = new FileOutputStream(logFile);
+		logOut = new DataOutputStream(new BufferedOutputStream(logFileOut, 64 * 1024));
+	}
+
+	private void appendToLog(Row row) throws IOException {
+		recordBytes.reset();
+		Segment.writeRow(recordOut, row);
+
+		crc.reset();
+		crc.update(recordBytes.toByteArray());
+
+		logOut.writeInt(recordBytes.size());
+		logOut.writeInt((int) crc.getValue());
+		recordBytes.writeTo(logOut);
+	}
+
+	private void syncLog() throws IOException {
+		logOut.flush();
+		logFileOut.getFD().sync();
+	}
+
+	// Swap in a fresh memtable and log once the memtable is full, and flush the old one
+	private void maybeFlush() {
+		if(memtableBytes < memtableLimit) {
+			return;
+		}
+
+		awaitFlush();
+
+		final ConcurrentSkipListMap<String, Row> table = memtable;
+		final File oldLog = logFile;
+		final long sequence = nextSequence++;
+		try {
+			openLog();
+		} catch(IOException e) {
+			throw new IllegalStateException("Can't start a new log", e);
+		}
+
+		flushing = table;
+		memtable = new ConcurrentSkipListMap<String, Row>();
+		memtableBytes = 0;
+
+		backgroundTasks.execute(new Runnable() {
+			@Override
+			public void run() {
+				flush(table, oldLog, sequence);
+			}
+		});
+	}
+
+	// Runs in the background. Retries until the Segment is written, writers wait meanwhile
+	private void flush(ConcurrentSkipListMap<String, Row> table, File oldLog, long sequence) {
+		Segment segment = null;
+		while(segment == null) {
+			try {
+				segment = Segment.write(segmentFile(sequence), sequence, table.values().iterator(),
+						table.size());
+			} catch(IOException e) {
+				try {
+					Thread.sleep(1000);
+				} catch(InterruptedException interrupted) {
+					return;
+				}
+			}
+		}
+
+		synchronized(this) {
+			addSegment(segment);
+			flushing = null;
+			notifyAll();
+		}
+
+		oldLog.delete();
+		maybeCompact();
+	}
+
+	// Wait for the flush in progress, if any. Called holding the lock
+	private void awaitFlush() {
+		while(flushing != null) {
+			try {
+				wait();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	// Merge all the Segments into one once there are enough of them
+	private void maybeCompact() {
+		final List<Segment> inputs;
+		synchronized(this) {
+			if(isCompacting || segments.size() < compactionTrigger) {
+				return;
+			}
+
+			isCompacting = true;
+			inputs = segments;
+			for(Segment input : inputs) {
+				input.acquire();
+			}
+		}
+
+		try {
+			// The merged Segment takes the newest input's place in the order
+			long sequence = inputs.get(0).getSequence();
+			File mergedFile = new File(directory, SEGMENT_PREFIX +
+					String.format("%016d", sequence) + SEGMENT_SUFFIX + ".merge");
+
+			List<Iterator<Row>> sources = new ArrayList<Iterator<Row>>();
+			int expectedRows = 0;
+			for(Segment input : inputs) {
+				sources.add(input.iterator(null));
+				expectedRows += input.getRowCount();
+			}
+
+			Segment merged = Segment.write(mergedFile, sequence, merge(sources), expectedRows);
+			merged.retire(false);
+
+			synchronized(this) {
+				// Replaces the newest input's file, so readers see either the old or the merged one
+				if(!mergedFile.renameTo(inputs.get(0).getFile())) {
+					mergedFile.delete();
+					return;
+				}
+				merged = Segment.open(inputs.get(0).getFile(), sequence);
+
+				List<Segment> current = new ArrayList<Segment>(segments);
+				current.removeAll(inputs);
+				current.add(merged);
+				segments = Collections.unmodifiableList(current);
+
+				for(Segment input : inputs) {
+					input.retire(input != inputs.get(0));
+				}
+			}
+		} catch(IOException e) {
+			// Try again after the next flush
+		} finally {
+			for(Segment input : inputs) {
+				input.release();
+			}
+
+			synchronized(this) {
+				isCompacting = false;
+			}
+		}
+	}
+
+	// Called holding the lock
+	private void addSegment(Segment segment) {
+		List<Segment> current = new ArrayList<Segment>(segments.size() + 1);
+		current.add(segment);
+		current.addAll(segments);
+		segments = Collections.unmodifiableList(current);
+	}
+
+	// A snapshot of the Segments, each acquired. Retries if one was retired meanwhile
+	private List<Segment> acquireSegments() {
+		while(true) {
+			List<Segment> snapshot = segments;
+			int acquired = 0;
+			while(acquired < snapshot.size() && snapshot.get(acquired).acquire()) {
+				acquired++;
+			}
+
+			if(acquired == snapshot.size()) {
+				return snapshot;
+			}
+
+			releaseSegments(snapshot.subList(0, acquired));
+		}
+	}
+
+	private static void releaseSegments(List<Segment> snapshot) {
+		for(Segment segment : snapshot) {
+			segment.release();
+		}
+	}
+
+	private File segmentFile(long sequence) {
+		return new File(directory, SEGMENT_PREFIX + String.format("%016d", sequence) + SEGMENT_SUFFIX);
+	}
+
+	private static long sequenceOf(String name, String prefix, String suffix) {
+		return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+	}
+
+	private static Iterator<Row> tail(ConcurrentSkipListMap<String, Row> table, String afterKey) {
+		return (afterKey == null ? table : table.tailMap(afterKey, false)).values().iterator();
+	}
+
+	private static long sizeOf(Row row) {
+		return ROW_OVERHEAD + 2L * (row.getKey().length() +
+				(row.getValue() == null ? 0 : row.getValue().length()));
+	}
+
+	/**
+	 * Merge sorted sources, newest source first, into one sorted iterator that
+	 * returns each key once, from the newest source that has it
+	 */
+	private static Iterator<Row> merge(final List<Iterator<Row>> sources) {
+		final PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(sources.size(), 1));
+		for(int i = 0 ; i < sources.size() ; i++) {
+			if(sources.get(i).hasNext()) {
+				heads.add(new Head(sources.get(i).next(), i));
+			}
+		}
+
+		return new Iterator<Row>() {
+			@Override
+			public boolean hasNext() {
+				return !heads.isEmpty();
+			}
+
+			@Override
+			public Row next() {
+				Head first = heads.poll();
+				if(first == null) {
+					throw new NoSuchElementException();
+				}
+
+				advance(first);
+
+				// Older copies of the same key
+				while(!heads.isEmpty() && heads.peek().row.getKey().equals(first.row.getKey())) {
+					advance(heads.poll());
+				}
+
+				return first.row;
+			}
+
+			private void advance(Head head) {
+				Iterator<Row> source = sources.get(head.source);
+				if(source.hasNext()) {
+					heads.add(new Head(source.next(), head.source));
+				}
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	// The next Row of one merge source
+	private static final class Head implements Comparable<Head> {
+		final Row row;
+		final int source;
+
+		Head(Row row, int source) {
+			this.row = row;
+			this.source = source;
+		}
+
+		@Override
+		public int compareTo(Head other) {
+			int order = row.getKey().compareTo(other.row.getKey());
+			return order != 0 ? order : source - other.source;
+		}
+	}
+}
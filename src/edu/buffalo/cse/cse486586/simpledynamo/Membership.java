@@ -0,0 +1,144 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Gossiped view of the Nodes in the Dynamo
+ *              Every Node owns one versioned entry: its generation (the time it
+ *              started, so a restart supersedes the old entry) and a heartbeat
+ *              count it bumps every gossip round. Nodes swap their whole view with
+ *              a random peer and keep the newer entry of every Node, so a Node
+ *              that gossips with any one seed is known to everyone within a few
+ *              rounds, and all Nodes converge on the same set of members (and so
+ *              on the same Ring). Members are never dropped: a Node that stops
+ *              gossiping is down, not gone, as in Dynamo
+ *              GOSSIP Message : one Row per member (key the Node, version its
+ *              heartbeat) and its generation at the same index of the digests
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class Membership {
+	private final String self;
+	private final Map<String, Member> members = new HashMap<String, Member>();
+
+	// One versioned entry of the view
+	public static final class Member {
+		private final String node;
+		private final long generation;
+		private final long heartbeat;
+
+		public Member(String node, long generation, long heartbeat) {
+			this.node = node;
+			this.generation = generation;
+			this.heartbeat = heartbeat;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		public long getGeneration() {
+			return generation;
+		}
+
+		public long getHeartbeat() {
+			return heartbeat;
+		}
+
+		public boolean isNewerThan(Member other) {
+			return generation != other.generation ? generation > other.generation :
+					heartbeat > other.heartbeat;
+		}
+	}
+
+	// The seeds are members from the start (at generation 0, so any real entry wins)
+	public Membership(String self, long generation, Collection<String> seeds) {
+		this.self = self;
+		for(String seed : seeds) {
+			members.put(seed, new Member(seed, 0, 0));
+		}
+		members.put(self, new Member(self, generation, 0));
+	}
+
+	// Start a new gossip round: bump my heartbeat
+	public synchronized void beat() {
+		Member me = members.get(self);
+		members.put(self, new Member(self, me.getGeneration(), me.getHeartbeat() + 1));
+	}
+
+	/**
+	 * Keep the newer entry of every Node in the other view. Returns true if it
+	 * brought Nodes I didn't know about
+	 */
+	public synchronized boolean merge(List<Member> view) {
+		boolean isChanged = false;
+		for(Member member : view) {
+			Member known = members.get(member.getNode());
+
+			if(member.getNode().equals(self)) {
+				// Somebody remembers a later me (a clock that went back); outrun it
+				if(member.isNewerThan(known)) {
+					members.put(self, new Member(self, member.getGeneration() + 1, 0));
+				}
+			} else if(known == null) {
+				members.put(member.getNode(), member);
+				isChanged = true;
+			} else if(member.isNewerThan(known)) {
+				members.put(member.getNode(), member);
+			}
+		}
+
+		return isChanged;
+	}
+
+	// The member Nodes, sorted
+	public synchronized List<String> getNodes() {
+		List<String> nodes = new ArrayList<String>(members.keySet());
+		Collections.sort(nodes);
+		return nodes;
+	}
+
+	public synchronized List<Member> getMembers() {
+		return new ArrayList<Member>(members.values());
+	}
+
+	public synchronized Member getMember(String node) {
+		return members.get(node);
+	}
+
+	// My view as a GOSSIP (or reply) Message
+	public Message toMessage(byte opcode) {
+		List<Member> view = getMembers();
+		List<Row> rows = new ArrayList<Row>(view.size());
+		long[] generations = new long[view.size()];
+		for(int i = 0 ; i < view.size() ; i++) {
+			rows.add(new Row(view.get(i).getNode(), null, view.get(i).getHeartbeat(), false));
+			generations[i] = view.get(i).getGeneration();
+		}
+
+		return new Message(opcode, 0, self, null, null, 0, false, rows, generations);
+	}
+
+	// The view carried by a GOSSIP Message
+	public static List<Member> fromMessage(Message message) {
+		List<Row> rows = message.getRows();
+		long[] generations = message.getDigests();
+		if(rows.size() != generations.length) {
+			throw new IllegalArgumentException("Malformed GOSSIP from " + message.getSender());
+		}
+
+		List<Member> view = new ArrayList<Member>(rows.size());
+		for(int i = 0 ; i < rows.size() ; i++) {
+			view.add(new Member(rows.get(i).getKey(), generations[i], rows.get(i).getVersion()));
+		}
+
+		return view;
+	}
+}
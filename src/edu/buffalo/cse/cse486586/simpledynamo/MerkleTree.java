@@ -0,0 +1,149 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Merkle Tree over the keys of one token range
+ *              A complete binary tree of fixed depth stored as an array (root at
+ *              position 0, children of p at 2p+1 and 2p+2). A key always lands in
+ *              the same leaf, and a leaf's hash is the XOR of the digests of its
+ *              Rows, so a write updates one leaf and its ancestors without reading
+ *              the other Rows. Two replicas holding the same Rows have the same
+ *              hashes at every position, and an empty subtree hashes to 0
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.Arrays;
+
+public final class MerkleTree {
+	private final int depth;
+	private final int leafCount;
+
+	// Hash of every position, leaves last
+	private final long[] hashes;
+
+	public MerkleTree(int depth) {
+		if(depth < 0 || depth > 20) {
+			throw new IllegalArgumentException("Unsupported Merkle Tree depth " + depth);
+		}
+
+		this.depth = depth;
+		this.leafCount = 1 << depth;
+		this.hashes = new long[2 * leafCount - 1];
+	}
+
+	// Replace the old Row of a leaf (null if it had none) with the new one (null to drop it)
+	public synchronized void update(int leaf, Row oldRow, Row newRow) {
+		long change = digest(oldRow) ^ digest(newRow);
+		if(change == 0) {
+			return;
+		}
+
+		int position = leafCount - 1 + leaf;
+		hashes[position] ^= change;
+
+		while(position > 0) {
+			position = (position - 1) >>> 1;
+			hashes[position] = combine(hashes[2 * position + 1], hashes[2 * position + 2]);
+		}
+	}
+
+	// The hashes at the positions, in the same order
+	public synchronized long[] getHashes(long[] positions, int offset) {
+		long[] result = new long[positions.length - offset];
+		for(int i = offset ; i < positions.length ; i++) {
+			result[i - offset] = hashes[(int) positions[i]];
+		}
+
+		return result;
+	}
+
+	public synchronized long getRootHash() {
+		return hashes[0];
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(hashes, 0);
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getLeafCount() {
+		return leafCount;
+	}
+
+	// Whether the position is a leaf, and not an inner node
+	public boolean isLeaf(long position) {
+		return position >= leafCount - 1;
+	}
+
+	// The leaf index (0 to leafCount - 1) of a leaf position
+	public int toLeaf(long position) {
+		return (int) (position - (leafCount - 1));
+	}
+
+	// The leaf a key with this hash falls in. Uses the last bytes of the hash, since
+	// the first ones mostly decide the token range and are alike within one range
+	public int leafOf(byte[] keyHash) {
+		int bits = ((keyHash[keyHash.length - 4] & 0xff) << 24) |
+				((keyHash[keyHash.length - 3] & 0xff) << 16) |
+				((keyHash[keyHash.length - 2] & 0xff) << 8) |
+				(keyHash[keyHash.length - 1] & 0xff);
+
+		return depth == 0 ? 0 : bits >>> (32 - depth);
+	}
+
+	// 64 bit digest of everything that makes a Row (0 for no Row). A Row with a
+	// time to live leaves out whether it's a tombstone: its swept tombstone keeps
+	// the value, so sweeping it on one replica doesn't make the replicas differ
+	public static long digest(Row row) {
+		if(row == null) {
+			return 0;
+		}
+
+		long hash = mix(stringHash(row.getKey()));
+		hash = mix(hash ^ stringHash(row.getValue()));
+		hash = mix(hash ^ row.getVersion());
+		if(row.getExpiresAt() != 0) {
+			return mix(hash ^ row.getExpiresAt());
+		}
+
+		hash = mix(hash ^ (row.isTombstone() ? 1 : 2));
+
+		return hash;
+	}
+
+	private static long combine(long left, long right) {
+		if(left == 0 && right == 0) {
+			return 0;
+		}
+
+		return mix(left * 0x9E3779B97F4A7C15L + right);
+	}
+
+	private static long stringHash(String string) {
+		if(string == null) {
+			return 0x5bd1e995L;
+		}
+
+		long hash = 1125899906842597L;
+		for(int i = 0 ; i < string.length() ; i++) {
+			hash = 31 * hash + string.charAt(i);
+		}
+
+		return hash;
+	}
+
+	// Finalizer of MurmurHash3, spreads every input bit over the whole word
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+}
@@ -0,0 +1,283 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   One MerkleTree per token range a Node stores (as coordinator or
+ *              replica), kept up to date by every local write. Ranges the Node
+ *              doesn't store have no tree. The keys of each leaf are indexed for
+ *              the ranges synced lately, so syncing a few differing leaves reads
+ *              only their Rows. The index holds at most maxIndexedKeys keys: the
+ *              range used longest ago is dropped first, and rebuilt with one scan
+ *              of the Storage the next time one of its leaves differs
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+public final class MerkleTrees {
+	private final Ring ring;
+	private final String node;
+	private final MerkleTree[] trees;
+	private final Storage storage;
+	private final int maxIndexedKeys;
+
+	// Keys per leaf of the indexed ranges. Deletes leave tombstones, so keys are only added
+	private final ConcurrentMap<Integer, RangeIndex> indexes =
+			new ConcurrentHashMap<Integer, RangeIndex>();
+
+	// Keys in all the indexes, and a clock telling which range was used longest ago
+	private final AtomicInteger indexedKeys = new AtomicInteger();
+	private final AtomicLong useClock = new AtomicLong();
+
+	public MerkleTrees(Ring ring, String node, int depth, Storage storage, int maxIndexedKeys) {
+		this.ring = ring;
+		this.node = node;
+		this.trees = new MerkleTree[ring.getRangeCount()];
+		this.storage = storage;
+		this.maxIndexedKeys = maxIndexedKeys;
+
+		for(int range = 0 ; range < trees.length ; range++) {
+			for(String replica : ring.getRangeReplicas(range)) {
+				if(replica.equals(node)) {
+					trees[range] = new MerkleTree(depth);
+				}
+			}
+		}
+	}
+
+	// Record that the key's Row changed from oldRow (null if new) to newRow
+	public void update(String key, Row oldRow, Row newRow) {
+		byte[] keyHash = Ring.hash(key);
+		int range = ring.getRange(keyHash);
+		MerkleTree tree = trees[range];
+		if(tree != null) {
+			int leaf = tree.leafOf(keyHash);
+			tree.update(leaf, oldRow, newRow);
+
+			// A range that isn't indexed picks the key up from the Storage when it's loaded
+			RangeIndex index = indexes.get(range);
+			if(oldRow == null && newRow != null && index != null && index.add(leaf, key)
+					&& indexedKeys.incrementAndGet() > maxIndexedKeys) {
+				evict(-1);
+			}
+		}
+	}
+
+	// The tree of the range, null if the Node doesn't store it
+	public MerkleTree getTree(int range) {
+		return range >= 0 && range < trees.length ? trees[range] : null;
+	}
+
+	// The keys in the leaves of the range
+	public List<String> getKeys(int range, long[] leaves) {
+		List<String> keys = new ArrayList<String>();
+		if(getTree(range) == null) {
+			return keys;
+		}
+
+		RangeIndex index = indexOf(range, leaves);
+		for(long leaf : leaves) {
+			keys.addAll(index.getKeys((int) leaf));
+		}
+
+		return keys;
+	}
+
+	// How many keys each of the leaves of the range holds, in the same order
+	public int[] countKeys(int range, long[] leaves) {
+		int[] counts = new int[leaves.length];
+		if(getTree(range) == null) {
+			return counts;
+		}
+
+		RangeIndex index = indexOf(range, leaves);
+		for(int i = 0 ; i < leaves.length ; i++) {
+			counts[i] = index.getKeys((int) leaves[i]).size();
+		}
+
+		return counts;
+	}
+
+	// The ranges this Node shares with the peer
+	public List<Integer> getSharedRanges(String peer) {
+		List<Integer> shared = new ArrayList<Integer>();
+		for(int range = 0 ; range < trees.length ; range++) {
+			if(trees[range] == null) {
+				continue;
+			}
+
+			for(String replica : ring.getRangeReplicas(range)) {
+				if(replica.equals(peer)) {
+					shared.add(range);
+				}
+			}
+		}
+
+		return shared;
+	}
+
+	public Ring getRing() {
+		return ring;
+	}
+
+	public String getNode() {
+		return node;
+	}
+
+	// How many keys are indexed right now
+	public int getIndexedKeys() {
+		return indexedKeys.get();
+	}
+
+	// The index of the range, loaded if it isn't kept. Holds at least the wanted leaves
+	private RangeIndex indexOf(int range, long[] wanted) {
+		RangeIndex index = indexes.get(range);
+		if(index == null) {
+			index = load(range, wanted);
+		}
+
+		index.lastUsed = useClock.incrementAndGet();
+		return index;
+	}
+
+	/**
+	 * Index the range from one keys-only scan of the Storage. The index is
+	 * registered before the scan, so a key written meanwhile is either in the
+	 * Storage already or added by update. A range with more keys than the whole
+	 * bound isn't kept: only its wanted leaves are filled, for this one caller
+	 */
+	private synchronized RangeIndex load(int range, long[] wanted) {
+		RangeIndex index = indexes.get(range);
+		if(index != null) {
+			return index;
+		}
+
+		MerkleTree tree = trees[range];
+		boolean[] isWanted = new boolean[tree.getLeafCount()];
+		for(long leaf : wanted) {
+			isWanted[(int) leaf] = true;
+		}
+
+		index = new RangeIndex(tree.getLeafCount());
+		index.lastUsed = useClock.incrementAndGet();
+		indexes.put(range, index);
+		boolean isKept = true;
+
+		String afterKey = null;
+		List<Row> page;
+		do {
+			page = storage.scan(afterKey, Constants.GLOBAL_SCAN_PAGE_SIZE, true);
+			for(Row row : page) {
+				byte[] keyHash = Ring.hash(row.getKey());
+				if(ring.getRange(keyHash) != range) {
+					continue;
+				}
+
+				int leaf = tree.leafOf(keyHash);
+				if(isKept) {
+					if(index.add(leaf, row.getKey())) {
+						indexedKeys.incrementAndGet();
+					}
+				} else if(isWanted[leaf]) {
+					index.add(leaf, row.getKey());
+				}
+			}
+
+			if(isKept && indexedKeys.get() > maxIndexedKeys) {
+				evict(range);
+				if(index.size() > maxIndexedKeys) {
+					Log.d("ANTIENTROPY", "Range " + range + " Too Big To Index, Reading Its Leaves Only");
+					indexes.remove(range);
+					indexedKeys.addAndGet(-index.size());
+					index.retain(isWanted);
+					isKept = false;
+				}
+			}
+
+			if(!page.isEmpty()) {
+				afterKey = page.get(page.size() - 1).getKey();
+			}
+		} while(page.size() == Constants.GLOBAL_SCAN_PAGE_SIZE);
+
+		return index;
+	}
+
+	// Drop the indexes used longest ago (but the kept range's) until the bound holds.
+	// Locks only the map, so a write never waits for a range being loaded
+	private void evict(int keptRange) {
+		synchronized(indexes) {
+			while(indexedKeys.get() > maxIndexedKeys) {
+				Integer oldest = null;
+				long oldestUse = Long.MAX_VALUE;
+				for(Integer range : indexes.keySet()) {
+					RangeIndex index = indexes.get(range);
+					if(range != keptRange && index != null && index.lastUsed < oldestUse) {
+						oldest = range;
+						oldestUse = index.lastUsed;
+					}
+				}
+
+				if(oldest == null) {
+					return;
+				}
+
+				RangeIndex dropped = indexes.remove(oldest);
+				if(dropped != null) {
+					indexedKeys.addAndGet(-dropped.size());
+				}
+			}
+		}
+	}
+
+	// The keys of every leaf of one range
+	private static final class RangeIndex {
+		private final List<Set<String>> leaves;
+		private final AtomicInteger size = new AtomicInteger();
+		private volatile long lastUsed;
+
+		RangeIndex(int leafCount) {
+			leaves = new ArrayList<Set<String>>(leafCount);
+			for(int leaf = 0 ; leaf < leafCount ; leaf++) {
+				leaves.add(Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+			}
+		}
+
+		// Whether the key is new to the leaf
+		boolean add(int leaf, String key) {
+			if(leaves.get(leaf).add(key)) {
+				size.incrementAndGet();
+				return true;
+			}
+
+			return false;
+		}
+
+		Set<String> getKeys(int leaf) {
+			return leaves.get(leaf);
+		}
+
+		// Empty every leaf that isn't wanted
+		void retain(boolean[] isWanted) {
+			for(int leaf = 0 ; leaf < isWanted.length ; leaf++) {
+				if(!isWanted[leaf]) {
+					size.addAndGet(-leaves.get(leaf).size());
+					leaves.get(leaf).clear();
+				}
+			}
+		}
+
+		int size() {
+			return size.get();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   One Message exchanged between AVDs
+ *              Messages travel in the binary format of MessageCodec, so keys and
+ *              values may contain any character
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.Collections;
+import java.util.List;
+
+public final class Message {
+	// Version of the wire format, checked by the receiver
+	public static final byte PROTOCOL_VERSION = 5;
+
+	// Opcodes
+	public static final byte INSERT = 1;
+	public static final byte DELETE = 2;
+	public static final byte QUERY = 3;
+	public static final byte QUERY_REPLY = 4;
+	public static final byte GLOBAL_QUERY = 5;
+	public static final byte GLOBAL_QUERY_REPLY = 6;
+	public static final byte ACK = 9;
+	public static final byte HANDOFF = 10;
+	public static final byte MERKLE_QUERY = 11;
+	public static final byte MERKLE_REPLY = 12;
+	public static final byte SYNC_QUERY = 13;
+	public static final byte SYNC_REPLY = 14;
+	public static final byte BATCH = 15;
+	public static final byte HEARTBEAT = 16;
+	public static final byte GOSSIP = 17;
+	public static final byte GOSSIP_REPLY = 18;
+	public static final byte STATS = 19;
+	public static final byte STATS_REPLY = 20;
+	public static final byte CHANGES = 21;
+	public static final byte CHANGES_REPLY = 22;
+
+	// Highest opcode in use
+	public static final byte MAX_OPCODE = CHANGES_REPLY;
+
+	private static final long[] NO_DIGESTS = new long[0];
+
+	private final byte opcode;
+	private final long requestId;
+
+	// The AVD that sent the Message
+	private final String sender;
+
+	// Key, Value and version of single key Messages. Key and Value may be null
+	private final String key;
+	private final String value;
+	private final long version;
+	private final boolean isTombstone;
+	private final long expiresAt;
+
+	// Key Value pairs carried by dumps
+	private final List<Row> rows;
+
+	// Numbers carried by the anti-entropy Messages (ranges, tree positions, hashes)
+	private final long[] digests;
+
+	public Message(byte opcode, long requestId, String sender, String key, String value) {
+		this(opcode, requestId, sender, key, value, 0, false, Collections.<Row>emptyList(),
+				NO_DIGESTS);
+	}
+
+	// A single key Message carrying the Row (key, value, version and expiry)
+	public Message(byte opcode, long requestId, String sender, Row row) {
+		this(opcode, requestId, sender, row.getKey(), row.getValue(), row.getVersion(),
+				row.isTombstone(), row.getExpiresAt(), Collections.<Row>emptyList(), NO_DIGESTS);
+	}
+
+	public Message(byte opcode, long requestId, String sender, List<Row> rows) {
+		this(opcode, requestId, sender, null, null, 0, false, rows, NO_DIGESTS);
+	}
+
+	public Message(byte opcode, long requestId, String sender, long[] digests) {
+		this(opcode, requestId, sender, null, null, 0, false, Collections.<Row>emptyList(),
+				digests);
+	}
+
+	public Message(byte opcode, long requestId, String sender, String key, String value,
+			long version, boolean isTombstone, List<Row> rows, long[] digests) {
+		this(opcode, requestId, sender, key, value, version, isTombstone, 0, rows, digests);
+	}
+
+	public Message(byte opcode, long requestId, String sender, String key, String value,
+			long version, boolean isTombstone, long expiresAt, List<Row> rows, long[] digests) {
+		this.opcode = opcode;
+		this.requestId = requestId;
+		this.sender = sender;
+		this.key = key;
+		this.value = value;
+		this.version = version;
+		this.isTombstone = isTombstone;
+		this.expiresAt = expiresAt;
+		this.rows = rows;
+		this.digests = digests;
+	}
+
+	// Getter Methods
+	public byte getOpcode() {
+		return opcode;
+	}
+
+	public long getRequestId() {
+		return requestId;
+	}
+
+	public String getSender() {
+		return sender;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isTombstone() {
+		return isTombstone;
+	}
+
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	// The single key carried by the Message as a Row, null if it carries none.
+	// A Row with version 0 that is no tombstone means the sender doesn't have the key
+	public Row getRow() {
+		if(key == null || (version == 0 && !isTombstone && value == null)) {
+			return null;
+		}
+
+		return new Row(key, value, version, isTombstone, expiresAt);
+	}
+
+	public List<Row> getRows() {
+		return rows;
+	}
+
+	public long[] getDigests() {
+		return digests;
+	}
+
+	// Lower case name of the opcode, null for unknown ones
+	public static String nameOf(byte opcode) {
+		switch(opcode) {
+		case INSERT: return "insert";
+		case DELETE: return "delete";
+		case QUERY: return "query";
+		case QUERY_REPLY: return "query_reply";
+		case GLOBAL_QUERY: return "global_query";
+		case GLOBAL_QUERY_REPLY: return "global_query_reply";
+		case ACK: return "ack";
+		case HANDOFF: return "handoff";
+		case MERKLE_QUERY: return "merkle_query";
+		case MERKLE_REPLY: return "merkle_reply";
+		case SYNC_QUERY: return "sync_query";
+		case SYNC_REPLY: return "sync_reply";
+		case BATCH: return "batch";
+		case HEARTBEAT: return "heartbeat";
+		case GOSSIP: return "gossip";
+		case GOSSIP_REPLY: return "gossip_reply";
+		case STATS: return "stats";
+		case STATS_REPLY: return "stats_reply";
+		case CHANGES: return "changes";
+		case CHANGES_REPLY: return "changes_reply";
+		default: return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Message[op=" + opcode + ", id=" + requestId + ", from=" + sender +
+				", key=" + key + ", rows=" + rows.size() + "]";
+	}
+}
@@ -0,0 +1,337 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Binary wire format of a Message
+ *              Frame  : [int length of the rest][byte protocol version][byte frame flags]
+ *                       then [body][int CRC32 of the body] for a CHECKSUM frame,
+ *                       or [int body length][deflated body][int CRC32 of the body]
+ *                       for a COMPRESSED one. A frame with neither is rejected
+ *              Body   : [byte opcode][long request id][string sender][row]
+ *                       [int row count][row]*[int digest count][long digest]*
+ *              Row    : [string key][string value][long version][byte flags]
+ *                       [long expires at, if flags has EXPIRES]
+ *              String : [int byte count, -1 for null][UTF-8 bytes]
+ *              Every body is checksummed. Bodies of COMPRESSION_THRESHOLD bytes
+ *              or more (pages of a dump, anti-entropy transfers, batches) are
+ *              deflated too when that makes them smaller. An instance reuses its
+ *              encode buffers and its Deflater and is not thread safe
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.net.ProtocolException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public final class MessageCodec {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// Size of the length prefix in front of every frame
+	public static final int LENGTH_PREFIX = 4;
+
+	// Bodies this big or bigger are compressed, if it pays
+	public static final int COMPRESSION_THRESHOLD = 4 * 1024;
+
+	// Largest body a compressed frame may claim to inflate to
+	private static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+	// Where the body starts in a plain frame: length, version and frame flags
+	private static final int HEADER_SIZE = LENGTH_PREFIX + 2;
+
+	// Frame flag bits
+	private static final byte FRAME_CHECKSUM = 1;
+	private static final byte FRAME_COMPRESSED = 2;
+
+	// Row flag bits
+	private static final byte FLAG_TOMBSTONE = 1;
+	private static final byte FLAG_EXPIRES = 2;
+
+	// Inflater per decoding thread, its native memory is reused
+	private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	private final CharsetEncoder encoder;
+	private ByteBuffer encodeBuffer;
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final CRC32 crc = new CRC32();
+	private ByteBuffer compressBuffer;
+
+	public MessageCodec(int initialBufferSize) {
+		encoder = UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		encodeBuffer = ByteBuffer.allocate(initialBufferSize);
+		compressBuffer = ByteBuffer.allocate(initialBufferSize);
+	}
+
+	// Encode the Message as one frame. The returned buffer is only valid until the next call
+	public ByteBuffer encode(Message message) {
+		while(true) {
+			encodeBuffer.clear();
+			try {
+				encodeBuffer.putInt(0);
+				encodeBuffer.put(Message.PROTOCOL_VERSION);
+				encodeBuffer.put((byte) 0);
+				encodeBuffer.put(message.getOpcode());
+				encodeBuffer.putLong(message.getRequestId());
+				putString(message.getSender());
+				putRow(message.getKey(), message.getValue(), message.getVersion(),
+						message.isTombstone(), message.getExpiresAt());
+
+				List<Row> rows = message.getRows();
+				encodeBuffer.putInt(rows.size());
+				for(int i = 0 ; i < rows.size() ; i++) {
+					Row row = rows.get(i);
+					putRow(row.getKey(), row.getValue(), row.getVersion(), row.isTombstone(),
+							row.getExpiresAt());
+				}
+
+				long[] digests = message.getDigests();
+				encodeBuffer.putInt(digests.length);
+				for(long digest : digests) {
+					encodeBuffer.putLong(digest);
+				}
+
+				// Every body is checksummed; the big ones are compressed too, if it pays
+				int bodyLength = encodeBuffer.position() - HEADER_SIZE;
+				crc.reset();
+				crc.update(encodeBuffer.array(), HEADER_SIZE, bodyLength);
+				int checksum = (int) crc.getValue();
+
+				if(bodyLength >= COMPRESSION_THRESHOLD && compress(bodyLength, checksum)) {
+					return compressBuffer;
+				}
+
+				encodeBuffer.put(HEADER_SIZE - 1, FRAME_CHECKSUM);
+				encodeBuffer.putInt(checksum);
+
+				encodeBuffer.putInt(0, encodeBuffer.position() - LENGTH_PREFIX);
+				encodeBuffer.flip();
+
+				return encodeBuffer;
+			} catch(BufferOverflowException e) {
+				// Too small for this Message, try again with twice the room
+				encodeBuffer = ByteBuffer.allocate(encodeBuffer.capacity() * 2);
+			}
+		}
+	}
+
+	/**
+	 * Deflate the body in encodeBuffer into a COMPRESSED frame in compressBuffer.
+	 * Returns false (and leaves encodeBuffer alone) if that isn't smaller
+	 */
+	private boolean compress(int bodyLength, int checksum) {
+		// Header, deflated length and checksum must fit in less than the plain frame
+		int limit = HEADER_SIZE + 4 + bodyLength;
+		if(compressBuffer.capacity() < limit) {
+			compressBuffer = ByteBuffer.allocate(limit);
+		}
+
+		deflater.reset();
+		deflater.setInput(encodeBuffer.array(), HEADER_SIZE, bodyLength);
+		deflater.finish();
+
+		int position = HEADER_SIZE + 4;
+		while(!deflater.finished()) {
+			int room = limit - 4 - position;
+			if(room <= 0) {
+				return false;
+			}
+
+			position += deflater.deflate(compressBuffer.array(), position, room);
+		}
+
+		compressBuffer.clear();
+		compressBuffer.putInt(position + 4 - LENGTH_PREFIX);
+		compressBuffer.put(Message.PROTOCOL_VERSION);
+		compressBuffer.put(FRAME_COMPRESSED);
+		compressBuffer.putInt(bodyLength);
+		compressBuffer.position(position);
+		compressBuffer.putInt(checksum);
+		compressBuffer.flip();
+
+		return true;
+	}
+
+	// Decode one frame (everything after the length prefix) between position and limit
+	public static Message decode(ByteBuffer frame) throws ProtocolException {
+		try {
+			byte protocolVersion = frame.get();
+			if(protocolVersion != Message.PROTOCOL_VERSION) {
+				throw new ProtocolException("Unsupported Message version " + protocolVersion);
+			}
+
+			byte frameFlags = frame.get();
+			if((frameFlags & FRAME_COMPRESSED) != 0) {
+				return decodeBody(inflate(frame));
+			}
+
+			if((frameFlags & FRAME_CHECKSUM) == 0) {
+				throw new ProtocolException("Frame without a checksum");
+			}
+
+			int bodyEnd = frame.limit() - 4;
+			verify(frame.array(), frame.arrayOffset() + frame.position(),
+					bodyEnd - frame.position(), frame.getInt(bodyEnd));
+			frame.limit(bodyEnd);
+
+			return decodeBody(frame);
+		} catch(RuntimeException e) {
+			// Truncated frame or garbage length
+			throw new ProtocolException("Corrupt Message : " + e);
+		}
+	}
+
+	// The body of a COMPRESSED frame, checked against its checksum
+	private static ByteBuffer inflate(ByteBuffer frame) throws ProtocolException {
+		int bodyLength = frame.getInt();
+		if(bodyLength < 0 || bodyLength > MAX_BODY_SIZE) {
+			throw new ProtocolException("Bad body length " + bodyLength);
+		}
+
+		int checksum = frame.getInt(frame.limit() - 4);
+		byte[] body = new byte[bodyLength];
+
+		Inflater inflater = INFLATER.get();
+		inflater.reset();
+		inflater.setInput(frame.array(), frame.arrayOffset() + frame.position(),
+				frame.remaining() - 4);
+		try {
+			int inflated = 0;
+			while(inflated < bodyLength && !inflater.finished()) {
+				int count = inflater.inflate(body, inflated, bodyLength - inflated);
+				if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += count;
+			}
+
+			if(inflated != bodyLength || !inflater.finished()) {
+				throw new ProtocolException("Truncated compressed body");
+			}
+		} catch(DataFormatException e) {
+			throw new ProtocolException("Corrupt compressed body : " + e.getMessage());
+		}
+
+		verify(body, 0, bodyLength, checksum);
+		return ByteBuffer.wrap(body);
+	}
+
+	private static void verify(byte[] bytes, int offset, int length, int checksum)
+			throws ProtocolException {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		if((int) crc.getValue() != checksum) {
+			throw new ProtocolException("Checksum mismatch");
+		}
+	}
+
+	private static Message decodeBody(ByteBuffer frame) throws ProtocolException {
+		byte opcode = frame.get();
+		long requestId = frame.getLong();
+		String sender = getString(frame);
+		String key = getString(frame);
+		String value = getString(frame);
+		long version = frame.getLong();
+		byte flags = frame.get();
+		long expiresAt = (flags & FLAG_EXPIRES) != 0 ? frame.getLong() : 0;
+
+		int rowCount = frame.getInt();
+		if(rowCount < 0 || rowCount > frame.remaining()) {
+			throw new ProtocolException("Bad row count " + rowCount);
+		}
+
+		List<Row> rows = new ArrayList<Row>(rowCount);
+		for(int i = 0 ; i < rowCount ; i++) {
+			String rowKey = getString(frame);
+			String rowValue = getString(frame);
+			long rowVersion = frame.getLong();
+			byte rowFlags = frame.get();
+			long rowExpiresAt = (rowFlags & FLAG_EXPIRES) != 0 ? frame.getLong() : 0;
+			rows.add(new Row(rowKey, rowValue, rowVersion, (rowFlags & FLAG_TOMBSTONE) != 0,
+					rowExpiresAt));
+		}
+
+		int digestCount = frame.getInt();
+		if(digestCount < 0 || digestCount > frame.remaining() / 8) {
+			throw new ProtocolException("Bad digest count " + digestCount);
+		}
+
+		long[] digests = new long[digestCount];
+		for(int i = 0 ; i < digestCount ; i++) {
+			digests[i] = frame.getLong();
+		}
+
+		return new Message(opcode, requestId, sender, key, value, version,
+				(flags & FLAG_TOMBSTONE) != 0, expiresAt, rows, digests);
+	}
+
+	private void putRow(String key, String value, long version, boolean isTombstone,
+			long expiresAt) {
+		putString(key);
+		putString(value);
+		encodeBuffer.putLong(version);
+		encodeBuffer.put((byte) ((isTombstone ? FLAG_TOMBSTONE : 0) |
+				(expiresAt != 0 ? FLAG_EXPIRES : 0)));
+		if(expiresAt != 0) {
+			encodeBuffer.putLong(expiresAt);
+		}
+	}
+
+	private void putString(String string) {
+		if(string == null) {
+			encodeBuffer.putInt(-1);
+			return;
+		}
+
+		// Reserve the length, encode straight into the buffer, then fill the length in
+		int lengthPosition = encodeBuffer.position();
+		encodeBuffer.putInt(0);
+
+		encoder.reset();
+		CharBuffer chars = CharBuffer.wrap(string);
+		CoderResult result = encoder.encode(chars, encodeBuffer, true);
+		if(result.isUnderflow()) {
+			result = encoder.flush(encodeBuffer);
+		}
+		if(result.isOverflow()) {
+			throw new BufferOverflowException();
+		}
+
+		encodeBuffer.putInt(lengthPosition, encodeBuffer.position() - lengthPosition - 4);
+	}
+
+	private static String getString(ByteBuffer frame) throws ProtocolException {
+		int length = frame.getInt();
+		if(length == -1) {
+			return null;
+		}
+		if(length < 0 || length > frame.remaining()) {
+			throw new ProtocolException("Bad string length " + length);
+		}
+
+		// Decode straight out of the backing array, no intermediate copy
+		String string = new String(frame.array(), frame.arrayOffset() + frame.position(),
+				length, UTF_8);
+		frame.position(frame.position() + length);
+
+		return string;
+	}
+}
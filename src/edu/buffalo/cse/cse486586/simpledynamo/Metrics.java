@@ -0,0 +1,89 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Named counters, latency Histograms and gauges of one AVD
+ *              Callers look a metric up once and keep it, so counting costs one
+ *              atomic increment and no Strings. A snapshot reads every metric
+ *              into name and value pairs; a Histogram is expanded into its count,
+ *              mean, p50, p99, p999 and max (in microseconds)
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class Metrics {
+	// A value read when the snapshot is taken, e.g. a queue's length
+	public interface Gauge {
+		long getValue();
+	}
+
+	private final ConcurrentHashMap<String, AtomicLong> counters =
+			new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentHashMap<String, Histogram> histograms =
+			new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentHashMap<String, Gauge> gauges =
+			new ConcurrentHashMap<String, Gauge>();
+
+	// The counter of the name, created at 0 the first time
+	public AtomicLong counter(String name) {
+		AtomicLong counter = counters.get(name);
+		if(counter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			counter = counters.putIfAbsent(name, newCounter);
+			if(counter == null) {
+				counter = newCounter;
+			}
+		}
+
+		return counter;
+	}
+
+	// The Histogram of the name, created empty the first time
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		if(histogram == null) {
+			Histogram newHistogram = new Histogram();
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if(histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+
+		return histogram;
+	}
+
+	public void gauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	// Every metric by name, in name order
+	public SortedMap<String, Long> snapshot() {
+		SortedMap<String, Long> values = new TreeMap<String, Long>();
+		for(Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+			values.put(counter.getKey(), counter.getValue().get());
+		}
+
+		for(Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+			values.put(gauge.getKey(), gauge.getValue().getValue());
+		}
+
+		for(Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			String name = entry.getKey();
+			Histogram histogram = entry.getValue();
+			values.put(name + ".count", histogram.getCount());
+			values.put(name + ".mean", histogram.getMean());
+			values.put(name + ".p50", histogram.getPercentile(50));
+			values.put(name + ".p99", histogram.getPercentile(99));
+			values.put(name + ".p999", histogram.getPercentile(99.9));
+			values.put(name + ".max", histogram.getMax());
+		}
+
+		return values;
+	}
+}
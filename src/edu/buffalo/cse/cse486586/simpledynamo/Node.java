@@ -17,12 +17,12 @@ public class Node implements Comparable <Node> {
 	// Hash Value of My Node Number
 	private final String myHash;
 
-	// Am I alive?
-	private boolean isAlive;
+	// Am I alive? Set by the failure detector, read by every request
+	private volatile boolean isAlive;
 
 	public Node(String myNode) throws NoSuchAlgorithmException {
 		this.myNode = myNode;
-		this.myHash = SimpleDynamoProvider.genHash(myNode);
+		this.myHash = DynamoNode.genHash(myNode);
 		this.setIsAlive(true);
 	}
 
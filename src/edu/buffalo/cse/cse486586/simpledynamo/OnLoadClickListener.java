@@ -0,0 +1,103 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Class to run the LoadGenerator against the Dynamo through
+ *              the ContentResolver, and show its Report
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.Log;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.TextView;
+
+public class OnLoadClickListener implements OnClickListener {
+	private static final String TAG = OnLoadClickListener.class.getName();
+	private static final String KEY_FIELD = "key";
+	private static final String VALUE_FIELD = "value";
+
+	// The workload: records, operations, read share, value size, threads, zipfian constant
+	private static final LoadGenerator.Workload WORKLOAD = new LoadGenerator.Workload(
+			1000, 5000, 0.95, 100, 8, ZipfianGenerator.DEFAULT_CONSTANT);
+
+	private final TextView mTextView;
+	private final ContentResolver mContentResolver;
+	private final Uri mUri;
+
+	public OnLoadClickListener(TextView _tv, ContentResolver _cr) {
+		mTextView = _tv;
+		mContentResolver = _cr;
+		mUri = buildUri("content", "edu.buffalo.cse.cse486586.simpledynamo.provider");
+	}
+
+	private Uri buildUri(String scheme, String authority) {
+		Uri.Builder uriBuilder = new Uri.Builder();
+		uriBuilder.authority(authority);
+		uriBuilder.scheme(scheme);
+		return uriBuilder.build();
+	}
+
+	@Override
+	public void onClick(View v) {
+		new Task().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+	}
+
+	// The provider as a Store; a failed insert is one that returned no Uri
+	private final class ResolverStore implements LoadGenerator.Store {
+		@Override
+		public void put(String key, String value) throws Exception {
+			ContentValues values = new ContentValues();
+			values.put(KEY_FIELD, key);
+			values.put(VALUE_FIELD, value);
+
+			if(mContentResolver.insert(mUri, values) == null) {
+				throw new Exception("Insert of " + key + " failed");
+			}
+		}
+
+		@Override
+		public String get(String key) throws Exception {
+			Cursor cursor = mContentResolver.query(mUri, null, key, null, null);
+			if(cursor == null) {
+				throw new Exception("Query of " + key + " failed");
+			}
+
+			try {
+				return cursor.moveToFirst() ?
+						cursor.getString(cursor.getColumnIndex(VALUE_FIELD)) : null;
+			} finally {
+				cursor.close();
+			}
+		}
+	}
+
+	private class Task extends AsyncTask<Void, String, Void> {
+		@Override
+		protected Void doInBackground(Void... params) {
+			publishProgress("Load : " + WORKLOAD + "\n");
+
+			try {
+				LoadGenerator.Report report = new LoadGenerator(new ResolverStore(), WORKLOAD).run();
+				Log.d(TAG, report.toString());
+				publishProgress(report.getLoad().toString() + report.getRun());
+			} catch(InterruptedException e) {
+				publishProgress("Load interrupted\n");
+			}
+
+			return null;
+		}
+
+		protected void onProgressUpdate(String...strings) {
+			mTextView.append(strings[0]);
+
+			return;
+		}
+	}
+}
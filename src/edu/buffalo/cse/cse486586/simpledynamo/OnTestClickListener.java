@@ -1,161 +0,0 @@
-/**
- * NAME	    :   ANKIT SARRAF
- * EMAIL    :   sarrafan@buffalo.edu
- * PURPOSE  :   Class to test if Insertion and Deletion were
- *              accomplished in a proper manner
- * @author sarrafan
- */
-
-package edu.buffalo.cse.cse486586.simpledynamo;
-
-import android.content.ContentResolver;
-import android.content.ContentValues;
-import android.database.Cursor;
-import android.net.Uri;
-import android.os.AsyncTask;
-import android.util.Log;
-import android.view.View;
-import android.view.View.OnClickListener;
-import android.widget.TextView;
-
-public class OnTestClickListener implements OnClickListener {
-
-	//private static int counter1 = 0;
-
-	private static final String TAG = OnTestClickListener.class.getName();
-	private static final int TEST_CNT = 50;
-	private static final String KEY_FIELD = "key";
-	private static final String VALUE_FIELD = "value";
-
-	private final TextView mTextView;
-	private final ContentResolver mContentResolver;
-	private final Uri mUri;
-	private final ContentValues[] mContentValues;
-
-	private static int counter1 = 0;
-
-	public OnTestClickListener(TextView _tv, ContentResolver _cr) {
-		mTextView = _tv;
-		mContentResolver = _cr;
-		mUri = buildUri("content", "edu.buffalo.cse.cse486586.simpledynamo.provider");
-		mContentValues = initTestValues();
-	}
-
-	private Uri buildUri(String scheme, String authority) {
-		Uri.Builder uriBuilder = new Uri.Builder();
-		uriBuilder.authority(authority);
-		uriBuilder.scheme(scheme);
-		return uriBuilder.build();
-	}
-
-	private ContentValues[] initTestValues() {
-		ContentValues[] cv = new ContentValues[TEST_CNT];
-		for (int i = 0; i < TEST_CNT; i++) {
-			cv[i] = new ContentValues();
-			cv[i].put(KEY_FIELD, "key" + Integer.toString(i));
-			cv[i].put(VALUE_FIELD, "val" + Integer.toString(i));
-		}
-
-		return cv;
-	}
-
-	@Override
-	public void onClick(View v) {
-		new Task().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-	}
-
-	private class Task extends AsyncTask<Void, String, Void> {
-
-		@Override
-		protected Void doInBackground(Void... params) {
-			if(OnTestClickListener.counter1 == 0) {
-				if (testInsert()) {
-					publishProgress("Insert success\n");
-				} else {
-					publishProgress("Insert fail\n");
-					return null;
-				}
-				counter1++;
-			} else {
-				if (testQuery()) {
-					publishProgress("Query success\n");
-				} else {
-					publishProgress("Query fail\n");
-				}
-			}
-			return null;
-		}
-
-		protected void onProgressUpdate(String...strings) {
-			mTextView.append(strings[0]);
-
-			return;
-		}
-
-		private boolean testInsert() {
-			try {
-				for (int i = 0; i < TEST_CNT; i++) {
-					//if(i == 15 || i == 0 || i == 2 || i == 38 || i == 1 || i == 4) {
-					mContentResolver.insert(mUri, mContentValues[i]);
-					//}
-				}
-			} catch (Exception e) {
-				Log.e(TAG, e.toString());
-				return false;
-			}
-
-			return true;
-		}
-
-		private boolean testQuery() {
-			try {
-				for (int i = 0; i < TEST_CNT; i++) {
-					if(i == 15 || i == 0 || i == 2 || i == 38 || i == 1 || i == 4) {
-						String key = (String) mContentValues[i].get(KEY_FIELD);
-						String val = (String) mContentValues[i].get(VALUE_FIELD);
-
-						Cursor resultCursor = mContentResolver.query(mUri, null,
-								key, null, null);
-						if (resultCursor == null || resultCursor.getCount() == 0) {
-							Log.e(TAG, "Result null");
-							throw new Exception();
-						}
-
-						int keyIndex = resultCursor.getColumnIndex(KEY_FIELD);
-						int valueIndex = resultCursor.getColumnIndex(VALUE_FIELD);
-						if (keyIndex == -1 || valueIndex == -1) {
-							Log.e(TAG, "Wrong columns");
-							resultCursor.close();
-							throw new Exception();
-						}
-
-						resultCursor.moveToFirst();
-
-						if (!(resultCursor.isFirst() && resultCursor.isLast())) {
-							Log.e(TAG, "Wrong number of rows");
-							resultCursor.close();
-							throw new Exception();
-						}
-
-						String returnKey = resultCursor.getString(keyIndex);
-						String returnValue = resultCursor.getString(valueIndex);
-
-						if(!(returnKey.equals(key) && returnValue.equals(val))) {
-							Log.e(TAG, "(key, value) pairs don't match\n");
-							resultCursor.close();
-							throw new Exception();
-						}
-
-						resultCursor.close();
-					}
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
-				System.out.println(e.getMessage());
-				return false;
-			}
-
-			return true;
-		}
-	}
-}
\ No newline at end of file
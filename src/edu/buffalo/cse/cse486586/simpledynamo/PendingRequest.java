@@ -0,0 +1,97 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   A request that was sent to other AVDs and is waiting for their replies
+ *              Replies are matched by request id, and the waiting thread sleeps
+ *              until enough replies arrive or its timeout runs out
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class PendingRequest {
+	private final long requestId;
+
+	// Number of replies after which the request is complete
+	private final int expectedReplies;
+
+	private final List<Message> replies;
+
+	// When each reply arrived (ms), in reply order
+	private final List<Long> arrivalTimes;
+	private boolean isDone;
+
+	PendingRequest(long requestId, int expectedReplies) {
+		this.requestId = requestId;
+		this.expectedReplies = expectedReplies;
+		this.replies = new ArrayList<Message>(expectedReplies);
+		this.arrivalTimes = new ArrayList<Long>(expectedReplies);
+		this.isDone = expectedReplies <= 0;
+	}
+
+	// Getter Methods
+	public long getRequestId() {
+		return requestId;
+	}
+
+	public int getExpectedReplies() {
+		return expectedReplies;
+	}
+
+	public synchronized boolean isDone() {
+		return isDone;
+	}
+
+	// Record one reply. Replies that arrive after completion are dropped
+	synchronized void addReply(Message reply) {
+		if(isDone) {
+			return;
+		}
+
+		replies.add(reply);
+		arrivalTimes.add(System.currentTimeMillis());
+		if(replies.size() >= expectedReplies) {
+			isDone = true;
+		}
+
+		notifyAll();
+	}
+
+	// When the index-th reply arrived
+	public synchronized long getArrivalTime(int index) {
+		return arrivalTimes.get(index);
+	}
+
+	// Stop waiting for further replies
+	synchronized void finish() {
+		isDone = true;
+		notifyAll();
+	}
+
+	/**
+	 * Wait until at least minReplies replies arrived, the request is complete,
+	 * or timeoutMillis passed, and return the replies received so far
+	 */
+	public synchronized List<Message> await(int minReplies, long timeoutMillis)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(!isDone && replies.size() < minReplies) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) {
+				break;
+			}
+
+			wait(remaining);
+		}
+
+		return new ArrayList<Message>(replies);
+	}
+
+	// Wait for all the expected replies
+	public List<Message> await(long timeoutMillis) throws InterruptedException {
+		return await(expectedReplies, timeoutMillis);
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Table of the requests this AVD is waiting on, keyed by request id
+ *              Any number of requests can be outstanding at the same time
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class PendingRequests {
+	private final AtomicLong nextRequestId;
+	private final ConcurrentHashMap<Long, PendingRequest> pending;
+
+	public PendingRequests() {
+		nextRequestId = new AtomicLong(1);
+		pending = new ConcurrentHashMap<Long, PendingRequest>();
+	}
+
+	// Create a request expecting the given number of replies
+	public PendingRequest register(int expectedReplies) {
+		PendingRequest request = new PendingRequest(nextRequestId.getAndIncrement(),
+				expectedReplies);
+		pending.put(request.getRequestId(), request);
+
+		return request;
+	}
+
+	// Hand a reply to the request it answers. Returns false for unknown or finished requests
+	public boolean complete(Message reply) {
+		PendingRequest request = pending.get(reply.getRequestId());
+		if(request == null) {
+			return false;
+		}
+
+		request.addReply(reply);
+		if(request.isDone()) {
+			pending.remove(reply.getRequestId());
+		}
+
+		return true;
+	}
+
+	// Forget the request, e.g. after its timeout
+	public void remove(PendingRequest request) {
+		request.finish();
+		pending.remove(request.getRequestId());
+	}
+
+	public int size() {
+		return pending.size();
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   LRU cache of point lookups in front of another Storage
+ *              Caches the Row of a key (with its version and tombstone) or the
+ *              fact that the key is absent, within a budget of bytes. Every put
+ *              goes through the cache and replaces the cached Row, so local
+ *              writes, replica writes, hand-offs and recovery all keep it up to
+ *              date. A lookup that raced with a put of its key is not cached
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class ReadCache implements Storage {
+	// Rough per entry overhead, on top of the key and value characters
+	private static final int ENTRY_OVERHEAD = 96;
+
+	// Cached in place of a Row for keys the Storage doesn't have
+	private static final Row ABSENT = new Row("", null);
+
+	// Puts per stripe of keys, to spot lookups that raced with a put
+	private static final int STRIPES = 64;
+
+	private final Storage storage;
+	private final long budget;
+
+	// Access ordered, so the eldest entry is the least recently used. Guarded by itself
+	private final LinkedHashMap<String, Row> entries;
+	private final long[] putCounts = new long[STRIPES];
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public ReadCache(Storage storage, long budget) {
+		this.storage = storage;
+		this.budget = budget;
+		this.entries = new LinkedHashMap<String, Row>(256, 0.75f, true);
+	}
+
+	@Override
+	public Row get(String key) {
+		long putCount;
+		synchronized(entries) {
+			Row row = entries.get(key);
+			if(row != null) {
+				hits.incrementAndGet();
+				return row == ABSENT ? null : row;
+			}
+
+			putCount = putCounts[stripe(key)];
+		}
+
+		misses.incrementAndGet();
+		Row row = storage.get(key);
+
+		synchronized(entries) {
+			// Only cache it if no put of a key like it happened meanwhile
+			if(putCounts[stripe(key)] == putCount && !entries.containsKey(key)) {
+				insert(key, row == null ? ABSENT : row);
+			}
+		}
+
+		return row;
+	}
+
+	@Override
+	public void put(Row row) {
+		storage.put(row);
+
+		synchronized(entries) {
+			insert(row.getKey(), row);
+			putCounts[stripe(row.getKey())]++;
+		}
+	}
+
+	@Override
+	public List<Row> scan(String afterKey, int limit, boolean keysOnly) {
+		// Scans would only flush the hot keys out, so they bypass the cache
+		return storage.scan(afterKey, limit, keysOnly);
+	}
+
+	@Override
+	public void beginBatch() {
+		storage.beginBatch();
+	}
+
+	@Override
+	public void endBatch() {
+		storage.endBatch();
+	}
+
+	@Override
+	public void clear() {
+		synchronized(entries) {
+			storage.clear();
+			entries.clear();
+			size = 0;
+			for(int i = 0 ; i < STRIPES ; i++) {
+				putCounts[i]++;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		storage.close();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	// Bytes (estimated) held by the cache
+	public long getSize() {
+		synchronized(entries) {
+			return size;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ReadCache[hits=" + hits.get() + ", misses=" + misses.get() + ", evictions=" +
+				evictions.get() + ", bytes=" + getSize() + "/" + budget + "]";
+	}
+
+	// Called holding the lock. Evicts the least recently used entries beyond the budget
+	private void insert(String key, Row row) {
+		Row previous = entries.put(key, row);
+		size += sizeOf(key, row) - (previous == null ? 0 : sizeOf(key, previous));
+
+		Iterator<Map.Entry<String, Row>> eldest = entries.entrySet().iterator();
+		while(size > budget && eldest.hasNext()) {
+			Map.Entry<String, Row> entry = eldest.next();
+			size -= sizeOf(entry.getKey(), entry.getValue());
+			eldest.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	private static long sizeOf(String key, Row row) {
+		return ENTRY_OVERHEAD + 2L * (key.length() +
+				(row.getValue() == null ? 0 : row.getValue().length()));
+	}
+
+	private static int stripe(String key) {
+		int hash = key.hashCode();
+		return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Immutable Consistent Hash Ring
+ *              Every physical Node is placed on the ring at several virtual tokens
+ *              (raw SHA-1 digests). The preference list (the N distinct Nodes that
+ *              store a key) is computed once per token, so routing a key is one
+ *              hash and one binary search
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public final class Ring {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// Digits used by toHex
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	// MessageDigest is not thread safe, so every thread keeps its own
+	private static final ThreadLocal<MessageDigest> SHA1 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-1");
+			} catch(NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	// The physical Nodes on the ring
+	private final List<String> nodes;
+
+	// Sorted tokens and, for each token, the Nodes that store keys just before it
+	private final byte[][] tokens;
+	private final String[][] preferenceLists;
+
+	private final int virtualNodes;
+	private final int replicationFactor;
+
+	public Ring(List<String> nodes, int virtualNodes, int replicationFactor) {
+		if(nodes.isEmpty() || virtualNodes < 1 || replicationFactor < 1) {
+			throw new IllegalArgumentException("Ring needs Nodes, virtual Nodes and N >= 1");
+		}
+
+		this.nodes = Collections.unmodifiableList(new ArrayList<String>(nodes));
+		this.virtualNodes = virtualNodes;
+		this.replicationFactor = Math.min(replicationFactor, nodes.size());
+
+		// Place every virtual Node on the ring
+		final int tokenCount = nodes.size() * virtualNodes;
+		final byte[][] unsortedTokens = new byte[tokenCount][];
+		final String[] unsortedOwners = new String[tokenCount];
+		for(int i = 0 ; i < nodes.size() ; i++) {
+			for(int v = 0 ; v < virtualNodes ; v++) {
+				unsortedTokens[i * virtualNodes + v] = hash(tokenName(nodes.get(i), v));
+				unsortedOwners[i * virtualNodes + v] = nodes.get(i);
+			}
+		}
+
+		Integer[] order = new Integer[tokenCount];
+		for(int i = 0 ; i < tokenCount ; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer lhs, Integer rhs) {
+				return compareTokens(unsortedTokens[lhs], unsortedTokens[rhs]);
+			}
+		});
+
+		tokens = new byte[tokenCount][];
+		String[] owners = new String[tokenCount];
+		for(int i = 0 ; i < tokenCount ; i++) {
+			tokens[i] = unsortedTokens[order[i]];
+			owners[i] = unsortedOwners[order[i]];
+		}
+
+		// Walk clockwise from each token collecting N distinct physical Nodes
+		preferenceLists = new String[tokenCount][];
+		for(int i = 0 ; i < tokenCount ; i++) {
+			String[] preferenceList = new String[this.replicationFactor];
+			int found = 0;
+			for(int j = 0 ; j < tokenCount && found < this.replicationFactor ; j++) {
+				String owner = owners[(i + j) % tokenCount];
+				if(!contains(preferenceList, found, owner)) {
+					preferenceList[found++] = owner;
+				}
+			}
+
+			preferenceLists[i] = preferenceList;
+		}
+	}
+
+	// The Nodes responsible for the key, coordinator first. Callers must not modify it
+	public String[] getPreferenceList(String key) {
+		return preferenceLists[findToken(hash(key))];
+	}
+
+	// The Node that coordinates the key
+	public String getCoordinator(String key) {
+		return getPreferenceList(key)[0];
+	}
+
+	// Whether the Node stores a replica of the key
+	public boolean isReplica(String key, String node) {
+		String[] preferenceList = getPreferenceList(key);
+		return contains(preferenceList, preferenceList.length, node);
+	}
+
+	// Number of token ranges; range i ends at the i-th token in ring order
+	public int getRangeCount() {
+		return tokens.length;
+	}
+
+	// The token range the key falls in
+	public int getRange(String key) {
+		return findToken(hash(key));
+	}
+
+	// The token range a key with this hash falls in
+	public int getRange(byte[] keyHash) {
+		return findToken(keyHash);
+	}
+
+	// The Nodes responsible for every key of the range. Callers must not modify it
+	public String[] getRangeReplicas(int range) {
+		return preferenceLists[range];
+	}
+
+	public List<String> getNodes() {
+		return nodes;
+	}
+
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+	public int getReplicationFactor() {
+		return replicationFactor;
+	}
+
+	// SHA-1 digest of the input
+	public static byte[] hash(String input) {
+		return SHA1.get().digest(input.getBytes(UTF_8));
+	}
+
+	// Lower case hex of the digest, as the old Formatter based genHash printed it
+	public static String toHex(byte[] digest) {
+		char[] hex = new char[digest.length * 2];
+		for(int i = 0 ; i < digest.length ; i++) {
+			hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+			hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0x0f];
+		}
+
+		return new String(hex);
+	}
+
+	// Unsigned lexicographic comparison of two digests
+	public static int compareTokens(byte[] lhs, byte[] rhs) {
+		int length = Math.min(lhs.length, rhs.length);
+		for(int i = 0 ; i < length ; i++) {
+			int difference = (lhs[i] & 0xff) - (rhs[i] & 0xff);
+			if(difference != 0) {
+				return difference;
+			}
+		}
+
+		return lhs.length - rhs.length;
+	}
+
+	// A key belongs to the first token strictly greater than its hash, wrapping around
+	private int findToken(byte[] keyHash) {
+		int low = 0;
+		int high = tokens.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(compareTokens(tokens[mid], keyHash) > 0) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+
+		return low == tokens.length ? 0 : low;
+	}
+
+	// The first virtual Node keeps the plain Node name, so one token per Node is the classic ring
+	private static String tokenName(String node, int virtualNode) {
+		return virtualNode == 0 ? node : node + "#" + virtualNode;
+	}
+
+	private static boolean contains(String[] array, int length, String value) {
+		for(int i = 0 ; i < length ; i++) {
+			if(array[i].equals(value)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   One Key Value pair as it is stored and shipped between AVDs
+ *              Every Row carries the HybridClock version of the write that produced it.
+ *              Deletes are kept as tombstones, so an old copy can't bring a key back.
+ *              A Row written with a time to live carries the wall clock time it
+ *              expires at; expired Rows are hidden from reads, and swept into
+ *              tombstones of the same write by every replica on its own
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+public final class Row {
+	private final String key;
+	private final String value;
+	private final long version;
+	private final boolean isTombstone;
+
+	// Wall clock time (ms) the Row expires at, 0 if it never does
+	private final long expiresAt;
+
+	public Row(String key, String value) {
+		this(key, value, 0, false);
+	}
+
+	public Row(String key, String value, long version, boolean isTombstone) {
+		this(key, value, version, isTombstone, 0);
+	}
+
+	public Row(String key, String value, long version, boolean isTombstone, long expiresAt) {
+		this.key = key;
+		this.value = isTombstone ? null : value;
+		this.version = version;
+		this.isTombstone = isTombstone;
+		this.expiresAt = expiresAt;
+	}
+
+	// The marker left behind by a delete
+	public static Row tombstone(String key, long version) {
+		return new Row(key, null, version, true);
+	}
+
+	// Getter Methods
+	public String getKey() {
+		return key;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isTombstone() {
+		return isTombstone;
+	}
+
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	public boolean isExpired(long now) {
+		return expiresAt != 0 && now >= expiresAt;
+	}
+
+	// Whether a read at that time sees the Row: neither deleted nor expired
+	public boolean isVisible(long now) {
+		return !isTombstone && !isExpired(now);
+	}
+
+	// The tombstone an expired Row is swept into. Same write, so it wins over
+	// every other replica's copy of it, and over anything older. The value stays,
+	// so the MerkleTree digest is the same before and after the sweep
+	public Row expire() {
+		return new Row(key, value, version, true, expiresAt);
+	}
+
+	/**
+	 * Whether this Row should replace the other copy of the same key.
+	 * Higher version wins; on a tie a delete wins, then the larger value,
+	 * so that every replica picks the same Row
+	 */
+	public boolean isNewerThan(Row other) {
+		if(other == null) {
+			return true;
+		}
+
+		if(version != other.version) {
+			return version > other.version;
+		}
+
+		if(isTombstone != other.isTombstone) {
+			return isTombstone;
+		}
+
+		if(isTombstone) {
+			return false;
+		}
+
+		String lhsValue = value == null ? "" : value;
+		String rhsValue = other.value == null ? "" : other.value;
+		return lhsValue.compareTo(rhsValue) > 0;
+	}
+
+	// The newer of two copies of the same key, either may be null
+	public static Row newest(Row lhs, Row rhs) {
+		if(lhs == null) {
+			return rhs;
+		}
+
+		return rhs != null && rhs.isNewerThan(lhs) ? rhs : lhs;
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   ChangeLog kept in SQLite tables, next to the Rows
+ *              Only the newest sequence of a key is kept (the key is the primary
+ *              key). The sequences I saw from each peer are kept in a table of
+ *              their own, so they survive my own restarts.
+ *              Appending only queues the keys: an appender thread gives them
+ *              their sequences and writes whatever queued up in one transaction,
+ *              so a write never waits on a second commit of its own. A crash can
+ *              lose the last keys queued, so a peer catching up from the log
+ *              still compares MerkleTrees before it counts a range recovered
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+class SQLiteChangeLog implements ChangeLog {
+	// Tables holding the log, and the sequences seen from the peers
+	static final String TABLE_NAME = "CHANGE_LOG";
+	static final String STATE_TABLE_NAME = "CHANGE_LOG_STATE";
+
+	// Columns in CHANGE_LOG and CHANGE_LOG_STATE
+	private static final String KEY = "key";
+	private static final String SEQUENCE = "sequence";
+	private static final String NAME = "name";
+
+	// Names in CHANGE_LOG_STATE: my truncation point, and what I saw from a peer
+	private static final String TRUNCATED = "#truncated";
+	private static final String SEEN_PREFIX = "seen:";
+
+	// Query Strings for Creating the tables, created along with the other tables
+	static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
+			KEY + " VARCHAR(255) PRIMARY KEY, " +
+			SEQUENCE + " INTEGER NOT NULL);";
+	static final String CREATE_INDEX = "CREATE INDEX " + TABLE_NAME + "_" + SEQUENCE +
+			" ON " + TABLE_NAME + " (" + SEQUENCE + ");";
+	static final String CREATE_STATE_TABLE = "CREATE TABLE " + STATE_TABLE_NAME + " (" +
+			NAME + " VARCHAR(255) PRIMARY KEY, " +
+			SEQUENCE + " INTEGER NOT NULL);";
+
+	private final SQLiteOpenHelper databaseHelper;
+
+	// Keys changed but not logged yet, and the most the appender logs at once
+	private final BlockingQueue<String> queuedKeys = new LinkedBlockingQueue<String>();
+	private final int maxAppendSize;
+	private final Thread appender;
+
+	// Last sequence handed out, and the one the log is truncated up to
+	private long lastSequence;
+	private long truncatedSequence;
+
+	// The sequence each peer acknowledged having seen, since I started
+	private final Map<String, Long> acknowledged = new HashMap<String, Long>();
+
+	SQLiteChangeLog(SQLiteOpenHelper databaseHelper, int maxAppendSize) {
+		this.databaseHelper = databaseHelper;
+		this.maxAppendSize = maxAppendSize;
+
+		SQLiteDatabase myDB = databaseHelper.getReadableDatabase();
+		truncatedSequence = readState(myDB, TRUNCATED);
+
+		Cursor cursor = myDB.rawQuery("SELECT MAX(" + SEQUENCE + ") FROM " + TABLE_NAME, null);
+		try {
+			lastSequence = cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+		lastSequence = Math.max(lastSequence, truncatedSequence);
+
+		this.appender = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				appendLoop();
+			}
+		}, "ChangeLog-Appender");
+		this.appender.setDaemon(true);
+		this.appender.start();
+	}
+
+	// Only queued: the keys get their sequences once the appender writes them
+	@Override
+	public void append(Collection<String> keys) {
+		queuedKeys.addAll(keys);
+	}
+
+	@Override
+	public void close() {
+		appender.interrupt();
+	}
+
+	// Log whatever is queued as one transaction, again and again
+	private void appendLoop() {
+		List<String> drained = new ArrayList<String>();
+		Set<String> keys = new LinkedHashSet<String>();
+
+		while(true) {
+			try {
+				drained.add(queuedKeys.take());
+			} catch(InterruptedException e) {
+				return;
+			}
+
+			// Everything that queued up while the last keys were being logged
+			queuedKeys.drainTo(drained, maxAppendSize - 1);
+			keys.addAll(drained);
+
+			try {
+				write(keys);
+			} catch(RuntimeException e) {
+				Log.e("ANKIT", "Change Log Append Failed : " + e.getMessage());
+			}
+
+			drained.clear();
+			keys.clear();
+		}
+	}
+
+	private synchronized void write(Collection<String> keys) {
+		SQLiteDatabase myDB = databaseHelper.getWritableDatabase();
+		long sequence = lastSequence;
+
+		myDB.beginTransaction();
+		try {
+			ContentValues values = new ContentValues();
+			for(String key : keys) {
+				values.put(KEY, key);
+				values.put(SEQUENCE, ++sequence);
+				myDB.replace(TABLE_NAME, null, values);
+			}
+			myDB.setTransactionSuccessful();
+			lastSequence = sequence;
+		} finally {
+			myDB.endTransaction();
+		}
+	}
+
+	@Override
+	public synchronized boolean covers(long sequence) {
+		return sequence >= truncatedSequence && sequence <= lastSequence;
+	}
+
+	@Override
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	@Override
+	public synchronized List<Change> after(long sequence, int limit) {
+		Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME,
+				new String [] {KEY, SEQUENCE}, SEQUENCE + ">?",
+				new String [] {String.valueOf(sequence)}, null, null, SEQUENCE,
+				String.valueOf(limit));
+
+		List<Change> changes = new ArrayList<Change>(cursor.getCount());
+		while(cursor.moveToNext()) {
+			changes.add(new Change(cursor.getString(0), cursor.getLong(1)));
+		}
+		cursor.close();
+
+		return changes;
+	}
+
+	@Override
+	public synchronized void acknowledge(String peer, long sequence, Collection<String> peers) {
+		Long previous = acknowledged.get(peer);
+		if(previous == null || previous < sequence) {
+			acknowledged.put(peer, sequence);
+		}
+
+		long seenByAll = lastSequence;
+		for(String other : peers) {
+			Long seen = acknowledged.get(other);
+			if(seen == null) {
+				return;
+			}
+			seenByAll = Math.min(seenByAll, seen);
+		}
+
+		if(seenByAll <= truncatedSequence) {
+			return;
+		}
+
+		SQLiteDatabase myDB = databaseHelper.getWritableDatabase();
+		myDB.beginTransaction();
+		try {
+			myDB.delete(TABLE_NAME, SEQUENCE + "<=?", new String [] {String.valueOf(seenByAll)});
+			writeState(myDB, TRUNCATED, seenByAll);
+			myDB.setTransactionSuccessful();
+			truncatedSequence = seenByAll;
+		} finally {
+			myDB.endTransaction();
+		}
+	}
+
+	@Override
+	public synchronized long getSeen(String peer) {
+		return readState(databaseHelper.getReadableDatabase(), SEEN_PREFIX + peer);
+	}
+
+	@Override
+	public synchronized void setSeen(String peer, long sequence) {
+		writeState(databaseHelper.getWritableDatabase(), SEEN_PREFIX + peer, sequence);
+	}
+
+	private static long readState(SQLiteDatabase myDB, String name) {
+		Cursor cursor = myDB.query(STATE_TABLE_NAME, new String [] {SEQUENCE}, NAME + "=?",
+				new String [] {name}, null, null, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private static void writeState(SQLiteDatabase myDB, String name, long sequence) {
+		ContentValues values = new ContentValues();
+		values.put(NAME, name);
+		values.put(SEQUENCE, sequence);
+		myDB.replace(STATE_TABLE_NAME, null, values);
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   HintStore kept in its own SQLite table, next to the Rows
+ *              Only the newest write of a key is kept per replica (the table's
+ *              primary key), so a long outage costs at most one hint per key
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+class SQLiteHintStore implements HintStore {
+	// Table holding the hints
+	static final String TABLE_NAME = "HINTS";
+
+	// Columns in HINTS
+	private static final String TARGET = "target";
+	private static final String KEY = "key";
+	private static final String VALUE = "value";
+	private static final String VERSION = "version";
+	private static final String TOMBSTONE = "tombstone";
+	private static final String EXPIRES_AT = "expires_at";
+
+	private static final String [] COLUMNS = {KEY, VALUE, VERSION, TOMBSTONE, EXPIRES_AT};
+
+	// Query String for Creating HINTS, created along with the other tables
+	static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
+			TARGET + " VARCHAR(255) NOT NULL, " +
+			KEY + " VARCHAR(255) NOT NULL, " +
+			VALUE + " VARCHAR(255), " +
+			VERSION + " INTEGER NOT NULL, " +
+			TOMBSTONE + " INTEGER NOT NULL, " +
+			EXPIRES_AT + " INTEGER NOT NULL DEFAULT 0, " +
+			"PRIMARY KEY (" + TARGET + ", " + KEY + "));";
+
+	// Adds EXPIRES_AT to a HINTS table created before it existed
+	static final String ADD_EXPIRES_AT = "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " +
+			EXPIRES_AT + " INTEGER NOT NULL DEFAULT 0;";
+
+	private final SQLiteOpenHelper databaseHelper;
+
+	SQLiteHintStore(SQLiteOpenHelper databaseHelper) {
+		this.databaseHelper = databaseHelper;
+	}
+
+	@Override
+	public synchronized boolean add(String target, Row row) {
+		SQLiteDatabase myDB = databaseHelper.getWritableDatabase();
+
+		Cursor cursor = myDB.query(TABLE_NAME, COLUMNS, TARGET + "=? AND " + KEY + "=?",
+				new String [] {target, row.getKey()}, null, null, null);
+		try {
+			if(cursor.moveToFirst() && !row.isNewerThan(readRow(cursor))) {
+				return false;
+			}
+		} finally {
+			cursor.close();
+		}
+
+		ContentValues values = new ContentValues();
+		values.put(TARGET, target);
+		values.put(KEY, row.getKey());
+		values.put(VALUE, row.getValue());
+		values.put(VERSION, row.getVersion());
+		values.put(TOMBSTONE, row.isTombstone() ? 1 : 0);
+		values.put(EXPIRES_AT, row.getExpiresAt());
+		myDB.replace(TABLE_NAME, null, values);
+
+		return true;
+	}
+
+	@Override
+	public synchronized List<Row> peek(String target, int limit) {
+		Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, COLUMNS,
+				TARGET + "=?", new String [] {target}, null, null, VERSION,
+				String.valueOf(limit));
+
+		List<Row> rows = new ArrayList<Row>(cursor.getCount());
+		while(cursor.moveToNext()) {
+			rows.add(readRow(cursor));
+		}
+		cursor.close();
+
+		return rows;
+	}
+
+	@Override
+	public synchronized void remove(String target, List<Row> delivered) {
+		SQLiteDatabase myDB = databaseHelper.getWritableDatabase();
+
+		myDB.beginTransaction();
+		try {
+			for(Row row : delivered) {
+				myDB.delete(TABLE_NAME, TARGET + "=? AND " + KEY + "=? AND " + VERSION + "=?",
+						new String [] {target, row.getKey(), String.valueOf(row.getVersion())});
+			}
+			myDB.setTransactionSuccessful();
+		} finally {
+			myDB.endTransaction();
+		}
+	}
+
+	@Override
+	public synchronized boolean hasHints(String target) {
+		Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME,
+				new String [] {KEY}, TARGET + "=?", new String [] {target}, null, null,
+				null, "1");
+		try {
+			return cursor.getCount() > 0;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private static Row readRow(Cursor cursor) {
+		return new Row(cursor.getString(0), cursor.getString(1), cursor.getLong(2),
+				cursor.getInt(3) != 0, cursor.getLong(4));
+	}
+}
@@ -0,0 +1,377 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Storage on the SQLite table DYNAMOTABLE, created along with the
+ *              other tables of the DatabaseHelper
+ *              The database runs in WAL journal mode, so readers don't block the
+ *              writer. All the writes go through one committer thread, which
+ *              takes whatever puts are waiting (from any number of threads) and
+ *              stores them with one precompiled upsert statement in a single
+ *              transaction: one fsync per group instead of one per Row. A put
+ *              returns once its group is committed. Rows waiting to be committed
+ *              are visible to get. A waiting Row is skipped only when a later
+ *              put of its key is committed already or in the same group; one
+ *              replaced by a put still waiting elsewhere (say in another
+ *              thread's open batch) is written anyway, since that put may never
+ *              be committed. So the order of the puts is what counts
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+class SQLiteStorage implements Storage {
+	// Initialize the Table Name
+	static final String TABLE_NAME = "DYNAMOTABLE";
+
+	// Columns in DYNAMOTABLE
+	// Column Key
+	private static final String KEY = "key";
+	// Column Value
+	private static final String VALUE = "value";
+	// Column Version (HybridClock version of the last write)
+	private static final String VERSION = "version";
+	// Column Tombstone (1 if the key was deleted)
+	private static final String TOMBSTONE = "tombstone";
+	// Column Expires At (wall clock ms, 0 if the Row has no time to live)
+	static final String EXPIRES_AT = "expires_at";
+
+	// All the Columns, in Row order
+	private static final String [] COLUMNS = {KEY, VALUE, VERSION, TOMBSTONE, EXPIRES_AT};
+
+	// The Columns of a keys only scan
+	private static final String [] KEY_COLUMNS = {KEY, "NULL", VERSION, TOMBSTONE, EXPIRES_AT};
+
+	// Query String for Creating KEYVALUETABLE
+	static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" +
+			KEY + " VARCHAR(255) PRIMARY KEY, " +
+			VALUE + " VARCHAR(255), " +
+			VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+			TOMBSTONE + " INTEGER NOT NULL DEFAULT 0, " +
+			EXPIRES_AT + " INTEGER NOT NULL DEFAULT 0);";
+
+	// Adds EXPIRES_AT to a DYNAMOTABLE created before it existed
+	static final String ADD_EXPIRES_AT = "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " +
+			EXPIRES_AT + " INTEGER NOT NULL DEFAULT 0;";
+
+	// Upsert of one Row, compiled once and used by the committer thread only
+	private static final String UPSERT = "INSERT OR REPLACE INTO " + TABLE_NAME + " (" +
+			KEY + ", " + VALUE + ", " + VERSION + ", " + TOMBSTONE + ", " + EXPIRES_AT +
+			") VALUES (?, ?, ?, ?, ?)";
+
+	// Lookup of one key. Always the same SQL, so the connection's statement cache
+	// compiles it once (an SQLiteStatement can only return a single column)
+	private static final String LOOKUP = "SELECT " + KEY + ", " + VALUE + ", " + VERSION +
+			", " + TOMBSTONE + ", " + EXPIRES_AT + " FROM " + TABLE_NAME + " WHERE " + KEY + "=?";
+
+	private final SQLiteOpenHelper databaseHelper;
+	private final SQLiteStatement upsert;
+
+	// Rows waiting for the committer thread
+	private final BlockingQueue<Commit> commits = new LinkedBlockingQueue<Commit>();
+	private final int maxGroupSize;
+	private final Thread committer;
+
+	// Per key with a put that isn't committed yet: its latest put, the last one
+	// committed and how many are outstanding. A key is only dropped once none of
+	// its puts is, so an old put flushed late still sees the newer one committed.
+	// Guarded by itself, along with putSequence
+	private final Map<String, PendingKey> pendingKeys = new HashMap<String, PendingKey>();
+	private long putSequence;
+
+	// Rows put inside a batch on this thread, committed together at endBatch
+	private final ThreadLocal<List<Put>> batches = new ThreadLocal<List<Put>>();
+	private final ThreadLocal<int[]> batchDepths = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	// One put, numbered in put order
+	private static final class Put {
+		final Row row;
+		final long sequence;
+
+		Put(Row row, long sequence) {
+			this.row = row;
+			this.sequence = sequence;
+		}
+	}
+
+	private static final class PendingKey {
+		Put latest;
+		long committedSequence;
+		int outstanding;
+	}
+
+	// Puts one caller waits on, committed in the same transaction
+	private static final class Commit {
+		final List<Put> puts;
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile RuntimeException failure;
+
+		Commit(List<Put> puts) {
+			this.puts = puts;
+		}
+	}
+
+	SQLiteStorage(SQLiteOpenHelper databaseHelper, int maxGroupSize) {
+		this.databaseHelper = databaseHelper;
+		this.maxGroupSize = maxGroupSize;
+
+		SQLiteDatabase myDB = databaseHelper.getWritableDatabase();
+		myDB.enableWriteAheadLogging();
+		this.upsert = myDB.compileStatement(UPSERT);
+
+		this.committer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				commitLoop();
+			}
+		}, "SQLiteStorage-Committer");
+		this.committer.setDaemon(true);
+		this.committer.start();
+	}
+
+	@Override
+	public Row get(String key) {
+		synchronized(pendingKeys) {
+			PendingKey pendingKey = pendingKeys.get(key);
+			if(pendingKey != null) {
+				return pendingKey.latest.row;
+			}
+		}
+
+		Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(LOOKUP, new String [] {key});
+
+		try {
+			if(cursor != null && cursor.moveToFirst()) {
+				return readRow(cursor);
+			}
+
+			return null;
+		} finally {
+			if(cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	@Override
+	public void put(Row row) {
+		Put put;
+		synchronized(pendingKeys) {
+			put = new Put(row, ++putSequence);
+
+			PendingKey pendingKey = pendingKeys.get(row.getKey());
+			if(pendingKey == null) {
+				pendingKey = new PendingKey();
+				pendingKeys.put(row.getKey(), pendingKey);
+			}
+			pendingKey.latest = put;
+			pendingKey.outstanding++;
+		}
+
+		List<Put> batch = batches.get();
+		if(batch != null) {
+			batch.add(put);
+			return;
+		}
+
+		commit(Collections.singletonList(put));
+	}
+
+	@Override
+	public List<Row> scan(String afterKey, int limit, boolean keysOnly) {
+		Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME,
+				keysOnly ? KEY_COLUMNS : COLUMNS,
+				afterKey == null ? null : KEY + ">?",
+				afterKey == null ? null : new String [] {afterKey}, null, null,
+				KEY, String.valueOf(limit));
+
+		List<Row> rows = new ArrayList<Row>(cursor.getCount());
+		while(cursor.moveToNext()) {
+			rows.add(readRow(cursor));
+		}
+		cursor.close();
+
+		return rows;
+	}
+
+	@Override
+	public void beginBatch() {
+		if(batchDepths.get()[0]++ == 0) {
+			batches.set(new ArrayList<Put>());
+		}
+	}
+
+	@Override
+	public void endBatch() {
+		if(--batchDepths.get()[0] > 0) {
+			return;
+		}
+
+		List<Put> batch = batches.get();
+		batches.remove();
+		if(!batch.isEmpty()) {
+			commit(batch);
+		}
+	}
+
+	@Override
+	public void clear() {
+		synchronized(upsert) {
+			databaseHelper.getWritableDatabase().delete(TABLE_NAME, null, null);
+		}
+	}
+
+	@Override
+	public void close() {
+		// The DatabaseHelper is shared with the other tables and closed by its owner
+		committer.interrupt();
+	}
+
+	// Hand the puts to the committer thread and wait until they are committed
+	private void commit(List<Put> puts) {
+		Commit commit = new Commit(puts);
+		commits.add(commit);
+
+		boolean isInterrupted = false;
+		while(true) {
+			try {
+				commit.done.await();
+				break;
+			} catch(InterruptedException e) {
+				// The Rows are queued already, so wait for them anyway
+				isInterrupted = true;
+			}
+		}
+		if(isInterrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		if(commit.failure != null) {
+			throw commit.failure;
+		}
+	}
+
+	// Commit whatever is waiting as one transaction, again and again
+	private void commitLoop() {
+		List<Commit> group = new ArrayList<Commit>();
+
+		while(true) {
+			try {
+				group.add(commits.take());
+			} catch(InterruptedException e) {
+				return;
+			}
+
+			// Everything that queued up while the last group was committing
+			int rows = group.get(0).puts.size();
+			Commit next;
+			while(rows < maxGroupSize && (next = commits.poll()) != null) {
+				group.add(next);
+				rows += next.puts.size();
+			}
+
+			RuntimeException failure = null;
+			try {
+				write(group);
+			} catch(RuntimeException e) {
+				Log.e("ANKIT", "Group Commit Failed : " + e.getMessage());
+				failure = e;
+			}
+
+			synchronized(pendingKeys) {
+				for(Commit commit : group) {
+					for(Put put : commit.puts) {
+						PendingKey pendingKey = pendingKeys.get(put.row.getKey());
+						if(pendingKey == null) {
+							continue;
+						}
+
+						if(failure == null) {
+							pendingKey.committedSequence =
+									Math.max(pendingKey.committedSequence, put.sequence);
+						}
+						if(--pendingKey.outstanding == 0) {
+							pendingKeys.remove(put.row.getKey());
+						}
+					}
+				}
+			}
+
+			for(Commit commit : group) {
+				commit.failure = failure;
+				commit.done.countDown();
+			}
+			group.clear();
+		}
+	}
+
+	private void write(List<Commit> group) {
+		SQLiteDatabase myDB = databaseHelper.getWritableDatabase();
+
+		// The last put of every key in the group
+		Map<String, Put> lastInGroup = new HashMap<String, Put>();
+		for(Commit commit : group) {
+			for(Put put : commit.puts) {
+				lastInGroup.put(put.row.getKey(), put);
+			}
+		}
+
+		// Skip a put only if a later put of its key is in the group, or committed
+		// already. One replaced by a put still waiting elsewhere is written anyway
+		List<Row> rows = new ArrayList<Row>(lastInGroup.size());
+		synchronized(pendingKeys) {
+			for(Put put : lastInGroup.values()) {
+				PendingKey pendingKey = pendingKeys.get(put.row.getKey());
+				if(pendingKey != null && pendingKey.committedSequence < put.sequence) {
+					rows.add(put.row);
+				}
+			}
+		}
+
+		synchronized(upsert) {
+			myDB.beginTransactionNonExclusive();
+			try {
+				for(Row row : rows) {
+					upsert.bindString(1, row.getKey());
+					if(row.getValue() == null) {
+						upsert.bindNull(2);
+					} else {
+						upsert.bindString(2, row.getValue());
+					}
+					upsert.bindLong(3, row.getVersion());
+					upsert.bindLong(4, row.isTombstone() ? 1 : 0);
+					upsert.bindLong(5, row.getExpiresAt());
+					upsert.executeInsert();
+				}
+				myDB.setTransactionSuccessful();
+			} finally {
+				myDB.endTransaction();
+			}
+		}
+	}
+
+	// Reads the Row under the cursor (columns in COLUMNS order)
+	private static Row readRow(Cursor cursor) {
+		return new Row(cursor.getString(0), cursor.getString(1), cursor.getLong(2),
+				cursor.getInt(3) != 0, cursor.getLong(4));
+	}
+}
@@ -0,0 +1,20 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   One AVD's Rows in key order, a page at a time, for the global scan
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.List;
+
+interface ScanSource {
+	String getName();
+
+	// Start fetching the page of Rows with keys after afterKey (null for the first page)
+	void requestPage(String afterKey, int pageSize, boolean keysOnly);
+
+	// The requested page, or null if it didn't arrive before the deadline
+	List<Row> awaitPage(long deadline) throws InterruptedException;
+}
@@ -0,0 +1,385 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Immutable sorted file of Rows written by LogStructuredStorage
+ *              File   : [row]* [index] [bloom filter] [footer]
+ *              Row    : [string key][string value][long version][byte flags]
+ *                       [long expires at, if flags has EXPIRES]
+ *              Index  : [int count]([string key][long offset])*, one entry per
+ *                       INDEX_INTERVAL Rows, so the Rows between two entries
+ *                       form a block that is read in one go
+ *              Footer : [long index offset][long bloom offset][int row count][int magic]
+ *              Readers acquire the Segment before use; once it is retired its
+ *              file is closed when the last reader releases it
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class Segment {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAGIC = 0x53454731;
+	private static final int FOOTER_SIZE = 24;
+
+	// Rows per index entry (and so per block read)
+	private static final int INDEX_INTERVAL = 32;
+
+	// Bloom Filter bits per key, about 1% false positives
+	private static final int BLOOM_BITS_PER_KEY = 10;
+
+	private static final byte FLAG_TOMBSTONE = 1;
+	private static final byte FLAG_EXPIRES = 2;
+
+	private final File file;
+	private final long sequence;
+	private final FileChannel channel;
+
+	// First key and file offset of every block, and where the last block ends
+	private final String[] blockKeys;
+	private final long[] blockOffsets;
+	private final long dataEnd;
+
+	private final BloomFilter bloomFilter;
+	private final int rowCount;
+
+	// Readers plus one for the owner; the file is closed when it drops to 0
+	private final AtomicInteger references = new AtomicInteger(1);
+	private volatile boolean deleteOnClose;
+
+	private Segment(File file, long sequence, FileChannel channel, String[] blockKeys,
+			long[] blockOffsets, long dataEnd, BloomFilter bloomFilter, int rowCount) {
+		this.file = file;
+		this.sequence = sequence;
+		this.channel = channel;
+		this.blockKeys = blockKeys;
+		this.blockOffsets = blockOffsets;
+		this.dataEnd = dataEnd;
+		this.bloomFilter = bloomFilter;
+		this.rowCount = rowCount;
+	}
+
+	// Write the Rows (in key order, one per key) to a new Segment file and open it
+	static Segment write(File file, long sequence, Iterator<Row> rows, int expectedRows)
+			throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tempFile);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+
+			List<String> indexKeys = new ArrayList<String>();
+			List<Long> indexOffsets = new ArrayList<Long>();
+			BloomFilter bloomFilter = new BloomFilter(Math.max(expectedRows, 1), BLOOM_BITS_PER_KEY);
+
+			long offset = 0;
+			int rowCount = 0;
+			while(rows.hasNext()) {
+				Row row = rows.next();
+				if(rowCount % INDEX_INTERVAL == 0) {
+					indexKeys.add(row.getKey());
+					indexOffsets.add(offset);
+				}
+
+				offset += writeRow(out, row);
+				bloomFilter.add(row.getKey());
+				rowCount++;
+			}
+
+			long indexOffset = offset;
+			out.writeInt(indexKeys.size());
+			for(int i = 0 ; i < indexKeys.size() ; i++) {
+				writeString(out, indexKeys.get(i));
+				out.writeLong(indexOffsets.get(i));
+			}
+
+			long bloomOffset = out.size() & 0xffffffffL;
+			bloomFilter.writeTo(out);
+
+			out.writeLong(indexOffset);
+			out.writeLong(bloomOffset);
+			out.writeInt(rowCount);
+			out.writeInt(MAGIC);
+
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			fileOut.close();
+		}
+
+		if(!tempFile.renameTo(file)) {
+			tempFile.delete();
+			throw new IOException("Can't rename " + tempFile);
+		}
+
+		return open(file, sequence);
+	}
+
+	static Segment open(File file, long sequence) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			long size = channel.size();
+			if(size < FOOTER_SIZE) {
+				throw new IOException("Truncated Segment " + file);
+			}
+
+			DataInputStream footer = read(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+			long indexOffset = footer.readLong();
+			long bloomOffset = footer.readLong();
+			int rowCount = footer.readInt();
+			if(footer.readInt() != MAGIC || indexOffset > bloomOffset ||
+					bloomOffset > size - FOOTER_SIZE) {
+				throw new IOException("Corrupt Segment " + file);
+			}
+
+			DataInputStream index = read(channel, indexOffset, (int) (bloomOffset - indexOffset));
+			int blocks = index.readInt();
+			String[] blockKeys = new String[blocks];
+			long[] blockOffsets = new long[blocks];
+			for(int i = 0 ; i < blocks ; i++) {
+				blockKeys[i] = readString(index);
+				blockOffsets[i] = index.readLong();
+			}
+
+			BloomFilter bloomFilter = BloomFilter.readFrom(read(channel, bloomOffset,
+					(int) (size - FOOTER_SIZE - bloomOffset)));
+
+			return new Segment(file, sequence, channel, blockKeys, blockOffsets, indexOffset,
+					bloomFilter, rowCount);
+		} catch(IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	// The Row of the key, null if this Segment doesn't have it
+	Row get(String key) throws IOException {
+		if(!bloomFilter.mightContain(key)) {
+			return null;
+		}
+
+		int block = findBlock(key);
+		if(block < 0) {
+			return null;
+		}
+
+		for(Row row : readBlock(block)) {
+			int order = row.getKey().compareTo(key);
+			if(order == 0) {
+				return row;
+			} else if(order > 0) {
+				break;
+			}
+		}
+
+		return null;
+	}
+
+	// Rows with keys after afterKey (null for all), in key order, read a block at a time
+	Iterator<Row> iterator(final String afterKey) {
+		final int firstBlock = afterKey == null ? 0 : Math.max(findBlock(afterKey), 0);
+
+		return new Iterator<Row>() {
+			private int nextBlock = firstBlock;
+			private List<Row> block = new ArrayList<Row>();
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				while(index == block.size()) {
+					if(nextBlock >= blockOffsets.length) {
+						return false;
+					}
+
+					try {
+						block = readBlock(nextBlock++);
+					} catch(IOException e) {
+						throw new IllegalStateException("Can't read " + file, e);
+					}
+
+					index = 0;
+					while(afterKey != null && index < block.size() &&
+							block.get(index).getKey().compareTo(afterKey) <= 0) {
+						index++;
+					}
+				}
+
+				return true;
+			}
+
+			@Override
+			public Row next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return block.get(index++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	// Take a reference for reading. Returns false if the Segment is already closed
+	boolean acquire() {
+		while(true) {
+			int current = references.get();
+			if(current == 0) {
+				return false;
+			}
+			if(references.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	void release() {
+		if(references.decrementAndGet() == 0) {
+			try {
+				channel.close();
+			} catch(IOException e) {
+				// Nothing left to read from it anyway
+			}
+
+			if(deleteOnClose) {
+				file.delete();
+			}
+		}
+	}
+
+	// Drop the owner's reference, deleting the file once no reader uses it
+	void retire(boolean deleteFile) {
+		deleteOnClose = deleteFile;
+		release();
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	int getRowCount() {
+		return rowCount;
+	}
+
+	// The last block whose first key is at or before the key, -1 if the key is before all
+	private int findBlock(String key) {
+		int low = 0;
+		int high = blockKeys.length - 1;
+		int found = -1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(blockKeys[mid].compareTo(key) <= 0) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		return found;
+	}
+
+	private List<Row> readBlock(int block) throws IOException {
+		long start = blockOffsets[block];
+		long end = block + 1 < blockOffsets.length ? blockOffsets[block + 1] : dataEnd;
+
+		DataInputStream in = read(channel, start, (int) (end - start));
+		List<Row> rows = new ArrayList<Row>(INDEX_INTERVAL);
+		while(in.available() > 0) {
+			rows.add(readRow(in));
+		}
+
+		return rows;
+	}
+
+	private static DataInputStream read(FileChannel channel, long position, int length)
+			throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+
+		return new DataInputStream(new ByteArrayInputStream(buffer.array()));
+	}
+
+	// Row encoding shared with the write-ahead log. Returns the bytes written
+	static int writeRow(DataOutput out, Row row) throws IOException {
+		int size = writeString(out, row.getKey());
+		size += writeString(out, row.getValue());
+		out.writeLong(row.getVersion());
+		out.writeByte((row.isTombstone() ? FLAG_TOMBSTONE : 0) |
+				(row.getExpiresAt() != 0 ? FLAG_EXPIRES : 0));
+		if(row.getExpiresAt() != 0) {
+			out.writeLong(row.getExpiresAt());
+			size += 8;
+		}
+
+		return size + 9;
+	}
+
+	static Row readRow(DataInput in) throws IOException {
+		String key = readString(in);
+		String value = readString(in);
+		long version = in.readLong();
+		byte flags = in.readByte();
+		long expiresAt = (flags & FLAG_EXPIRES) != 0 ? in.readLong() : 0;
+
+		return new Row(key, value, version, (flags & FLAG_TOMBSTONE) != 0, expiresAt);
+	}
+
+	private static int writeString(DataOutput out, String string) throws IOException {
+		if(string == null) {
+			out.writeInt(-1);
+			return 4;
+		}
+
+		byte[] bytes = string.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+
+		return 4 + bytes.length;
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if(length == -1) {
+			return null;
+		}
+		if(length < 0) {
+			throw new IOException("Bad string length " + length);
+		}
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		return new String(bytes, UTF_8);
+	}
+}
@@ -23,9 +23,6 @@ public class SimpleDynamoActivity extends Activity {
 		TextView tv = (TextView) findViewById(R.id.myData);
 		tv.setMovementMethod(new ScrollingMovementMethod());
 
-		findViewById(R.id.button3).setOnClickListener(
-				new OnTestClickListener(tv, getContentResolver()));
-
 		Button successorButton = (Button) findViewById(R.id.button4);
 		successorButton.setOnClickListener(new OnClickListener() {
 			@Override
@@ -34,7 +31,7 @@ public class SimpleDynamoActivity extends Activity {
 
 				tt.setText("");
 
-				for(Node aNode : SimpleDynamoProvider.allNodes) {
+				for(Node aNode : SimpleDynamoProvider.getAllNodes()) {
 					tt.append(aNode.getMyNode() + "\n");
 				}
 			}
@@ -46,6 +43,9 @@ public class SimpleDynamoActivity extends Activity {
 		findViewById(R.id.button2).setOnClickListener(
 				new OnGDumpClickListener(tv, getContentResolver()));
 
+		findViewById(R.id.button6).setOnClickListener(
+				new OnLoadClickListener(tv, getContentResolver()));
+
 		Button clearButton = (Button) findViewById(R.id.button5);
 		clearButton.setOnClickListener(new OnClickListener() {
 			@Override
@@ -0,0 +1,36 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Local storage engine of an AVD
+ *              Stores the newest Row (tombstones included) of every key. Deciding
+ *              which Row is newest is the caller's job; put always overwrites
+ *              Implementations: SQLiteStorage and LogStructuredStorage
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.List;
+
+public interface Storage {
+	// The Row of the key, null if there is none
+	Row get(String key);
+
+	// Store the Row, replacing whatever the key had
+	void put(Row row);
+
+	// Up to limit Rows with keys after afterKey (null for the first key), in key order.
+	// Keys only may leave the values out
+	List<Row> scan(String afterKey, int limit, boolean keysOnly);
+
+	// Group the puts until endBatch, so they are made durable together.
+	// Rows put inside a batch are kept even if the batch ends early
+	void beginBatch();
+
+	void endBatch();
+
+	// Drop every Row
+	void clear();
+
+	void close();
+}
@@ -0,0 +1,91 @@
+/**
+ * NAME	    :   ANKIT SARRAF
+ * EMAIL    :   sarrafan@buffalo.edu
+ * PURPOSE  :   Zipfian distributed item numbers in [0, items), as in YCSB
+ *              Item 0 is the most popular, then 1, and so on (Gray et al.,
+ *              "Quickly Generating Billion-Record Synthetic Databases"). When
+ *              scrambled, the popular items are spread over the whole range by
+ *              hashing, so they aren't all neighbours in key order
+ * @author sarrafan
+ */
+
+package edu.buffalo.cse.cse486586.simpledynamo;
+
+import java.util.Random;
+
+public final class ZipfianGenerator {
+	// The skew YCSB uses by default
+	public static final double DEFAULT_CONSTANT = 0.99;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 1099511628211L;
+
+	private final long items;
+	private final double theta;
+	private final boolean isScrambled;
+
+	private final double zetaN;
+	private final double alpha;
+	private final double eta;
+	private final double halfPowTheta;
+
+	public ZipfianGenerator(long items, double theta, boolean isScrambled) {
+		if(items < 1 || theta <= 0 || theta >= 1) {
+			throw new IllegalArgumentException("Zipfian needs items >= 1 and 0 < theta < 1");
+		}
+
+		this.items = items;
+		this.theta = theta;
+		this.isScrambled = isScrambled;
+
+		this.zetaN = zeta(items, theta);
+		this.alpha = 1.0 / (1.0 - theta);
+		this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+		this.halfPowTheta = 1 + Math.pow(0.5, theta);
+	}
+
+	// The next item. Random isn't shared between threads, so every caller brings its own
+	public long next(Random random) {
+		double u = random.nextDouble();
+		double uz = u * zetaN;
+
+		long item;
+		if(uz < 1.0) {
+			item = 0;
+		} else if(uz < halfPowTheta) {
+			item = 1;
+		} else {
+			item = Math.min((long) (items * Math.pow(eta * u - eta + 1, alpha)), items - 1);
+		}
+
+		return isScrambled ? scramble(item) : item;
+	}
+
+	public long getItems() {
+		return items;
+	}
+
+	public double getTheta() {
+		return theta;
+	}
+
+	private long scramble(long item) {
+		// FNV-1a over the 8 bytes of the item
+		long hash = FNV_OFFSET_BASIS;
+		for(int i = 0 ; i < 8 ; i++) {
+			hash ^= (item >>> (8 * i)) & 0xff;
+			hash *= FNV_PRIME;
+		}
+
+		return (hash & Long.MAX_VALUE) % items;
+	}
+
+	private static double zeta(long n, double theta) {
+		double sum = 0;
+		for(long i = 1 ; i <= n ; i++) {
+			sum += 1 / Math.pow(i, theta);
+		}
+
+		return sum;
+	}
+}